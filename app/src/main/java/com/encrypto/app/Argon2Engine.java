@@ -0,0 +1,597 @@
+package com.encrypto.app;
+
+import org.bouncycastle.crypto.digests.Blake2bDigest;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Argon2id (version 0x13, RFC 9106) with pooled working memory.
+ *
+ * Bouncy Castle's Argon2BytesGenerator allocates the whole block matrix (64 MiB with the legacy
+ * settings) on every call, so back-to-back derivations churn the heap. This engine keeps up to
+ * {@code maxPooledArenas} idle matrices and hands them out again when a derivation of the same size
+ * comes in. An arena is zeroed as soon as its derivation finishes, before it goes back to the pool,
+ * and is dropped after a few idle seconds: DerivationGate only counts running derivations, so a
+ * pooled arena is heap the gate believes is free, and that must not last.
+ *
+ * Lanes are filled concurrently: within one slice every lane only reads blocks of finished slices
+ * (or its own), so the calling thread fills one lane, lane workers fill the rest, and all of them
+ * meet at each slice boundary. Bouncy Castle runs the lanes one after another, so parallelism 2
+ * there costs twice the time of parallelism 1 for the same memory; here it does not.
+ * Output is identical to Argon2BytesGenerator for the same inputs.
+ */
+public final class Argon2Engine {
+
+    public static final int DEFAULT_POOL_SIZE = 1;
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 10_000;
+    private static final int MAX_LANE_THREADS = KdfParams.MAX_PARALLELISM - 1;
+
+    static final int BLOCK_LONGS = 128;
+    static final int BLOCK_BYTES = BLOCK_LONGS * 8;
+    private static final int SYNC_POINTS = 4;
+    private static final int VERSION = 0x13;
+    private static final int TYPE_ID = 2;        // Argon2id
+    private static final int PREHASH_LENGTH = 64;
+
+    private static Argon2Engine instance;
+
+    private final ArrayDeque<IdleArena> idle = new ArrayDeque<>();
+    private int maxPooledArenas;
+    private long idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_IDLE_TIMEOUT_MILLIS);
+    private final ScheduledThreadPoolExecutor evictor;
+
+    private final ExecutorService laneWorkers; // Null when lanes run on the calling thread only
+
+    private long allocations;
+    private long reuses;
+    private long bytesAllocated;
+    private long bytesReused;
+
+    public static synchronized Argon2Engine getInstance() {
+        if (instance == null) {
+            instance = new Argon2Engine(DEFAULT_POOL_SIZE);
+        }
+        return instance;
+    }
+
+    public Argon2Engine(int maxPooledArenas) {
+        this(maxPooledArenas, Math.min(MAX_LANE_THREADS, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    /** laneThreads helpers join the calling thread; zero computes every lane sequentially. */
+    public Argon2Engine(int maxPooledArenas, int laneThreads) {
+        if (laneThreads < 0) {
+            throw new IllegalArgumentException("Lane thread count must not be negative");
+        }
+        setPoolSize(maxPooledArenas);
+        laneWorkers = laneThreads == 0 ? null : Executors.newFixedThreadPool(laneThreads, new DaemonThreadFactory("argon2-lane-"));
+        evictor = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("argon2-evict-"));
+        evictor.setKeepAliveTime(1, TimeUnit.SECONDS);
+        evictor.allowCoreThreadTimeOut(true);
+    }
+
+    /** Number of idle arenas kept between derivations. Zero disables pooling. */
+    public synchronized void setPoolSize(int maxPooledArenas) {
+        if (maxPooledArenas < 0) {
+            throw new IllegalArgumentException("Pool size must not be negative");
+        }
+        this.maxPooledArenas = maxPooledArenas;
+        while (idle.size() > maxPooledArenas) {
+            idle.pollFirst();
+        }
+    }
+
+    /** How long an arena may sit in the pool before it is dropped. */
+    public synchronized void setIdleTimeoutMillis(long millis) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("Idle timeout must be positive");
+        }
+        idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /** Drops every idle arena, e.g. when the system reports memory pressure. */
+    public synchronized void trim() {
+        idle.clear();
+    }
+
+    public synchronized Stats getStats() {
+        long idleBytes = 0;
+        for (IdleArena arena : idle) {
+            idleBytes += arena.memory.length * 8L;
+        }
+        return new Stats(allocations, reuses, bytesAllocated, bytesReused, idleBytes);
+    }
+
+    /**
+     * Derives outLength bytes from the password and salt. Safe to call from several threads; each
+     * derivation holds one arena of memoryKb KiB while it runs.
+     */
+    public byte[] derive(byte[] password, byte[] salt, KdfParams params, int outLength) {
+        if (password == null || salt == null || params == null) {
+            throw new IllegalArgumentException("Password, salt and parameters must not be null");
+        }
+        return derive(password, salt, new byte[0], new byte[0],
+                params.iterations, params.memoryKb(), params.parallelism, outLength);
+    }
+
+    // Full RFC 9106 input set; the secret and associated data are only used by test vectors
+    byte[] derive(byte[] password, byte[] salt, byte[] secret, byte[] associatedData,
+                  int iterations, int memoryKb, int lanes, int outLength) {
+        if (outLength < 4) {
+            throw new IllegalArgumentException("Output must be at least 4 bytes");
+        }
+        if (iterations < 1 || lanes < 1 || memoryKb < 8 * lanes) {
+            throw new IllegalArgumentException("Invalid Argon2 parameters");
+        }
+
+        Derivation d = new Derivation(iterations, memoryKb, lanes);
+        long[] memory = acquire(d.memoryBlocks * BLOCK_LONGS);
+        Scratch[] scratch = new Scratch[lanes];
+        try {
+            d.memory = memory;
+            byte[] h0 = prehash(password, salt, secret, associatedData, iterations, memoryKb, lanes, outLength);
+            d.initialBlocks(h0);
+            Arrays.fill(h0, (byte) 0);
+
+            for (int lane = 0; lane < lanes; lane++) {
+                scratch[lane] = new Scratch();
+            }
+            for (int pass = 0; pass < iterations; pass++) {
+                for (int slice = 0; slice < SYNC_POINTS; slice++) {
+                    fillSlice(d, pass, slice, scratch);
+                }
+            }
+            return d.finish(outLength);
+        } finally {
+            for (Scratch s : scratch) {
+                if (s != null) s.wipe();
+            }
+            release(memory);
+        }
+    }
+
+    // Fills one slice of every lane and returns once all of them are done
+    private void fillSlice(Derivation d, int pass, int slice, Scratch[] scratch) {
+        if (laneWorkers == null || d.lanes == 1) {
+            for (int lane = 0; lane < d.lanes; lane++) {
+                d.fillSegment(pass, slice, lane, scratch[lane]);
+            }
+            return;
+        }
+
+        Future<?>[] helpers = new Future<?>[d.lanes - 1];
+        for (int lane = 1; lane < d.lanes; lane++) {
+            final int l = lane;
+            helpers[lane - 1] = laneWorkers.submit(() -> d.fillSegment(pass, slice, l, scratch[l]));
+        }
+
+        RuntimeException failure = null;
+        try {
+            d.fillSegment(pass, slice, 0, scratch[0]);
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        // Always wait for every helper: the arena must not go back to the pool while one still writes
+        boolean interrupted = false;
+        for (Future<?> helper : helpers) {
+            while (true) {
+                try {
+                    helper.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        Throwable cause = e.getCause();
+                        failure = cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException(cause);
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private synchronized long[] acquire(int longs) {
+        for (Iterator<IdleArena> it = idle.iterator(); it.hasNext(); ) {
+            long[] arena = it.next().memory;
+            if (arena.length == longs) {
+                it.remove();
+                reuses++;
+                bytesReused += longs * 8L;
+                return arena;
+            }
+        }
+        allocations++;
+        bytesAllocated += longs * 8L;
+        return new long[longs];
+    }
+
+    private void release(long[] arena) {
+        // Zero outside the lock; the arena is not shared until it is back in the pool
+        Arrays.fill(arena, 0L);
+        long timeout;
+        synchronized (this) {
+            if (maxPooledArenas == 0) return;
+            if (idle.size() >= maxPooledArenas) {
+                idle.pollFirst();
+            }
+            idle.addLast(new IdleArena(arena, System.nanoTime()));
+            timeout = idleTimeoutNanos;
+        }
+        evictor.schedule(this::evictExpired, timeout, TimeUnit.NANOSECONDS);
+    }
+
+    // Oldest first; an arena reused and released again in the meantime carries a newer timestamp
+    private synchronized void evictExpired() {
+        long now = System.nanoTime();
+        while (!idle.isEmpty() && now - idle.peekFirst().since >= idleTimeoutNanos) {
+            idle.pollFirst();
+        }
+        // The timeout may have grown since this check was scheduled
+        if (!idle.isEmpty()) {
+            long remaining = idleTimeoutNanos - (now - idle.peekFirst().since);
+            evictor.schedule(this::evictExpired, remaining, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // H0 = Blake2b-512 over the parameters and inputs (RFC 9106 section 3.2)
+    private static byte[] prehash(byte[] password, byte[] salt, byte[] secret, byte[] associatedData,
+                                  int iterations, int memoryKb, int lanes, int outLength) {
+        Blake2bDigest digest = new Blake2bDigest(PREHASH_LENGTH * 8);
+        updateInt(digest, lanes);
+        updateInt(digest, outLength);
+        updateInt(digest, memoryKb);
+        updateInt(digest, iterations);
+        updateInt(digest, VERSION);
+        updateInt(digest, TYPE_ID);
+        updateInt(digest, password.length);
+        digest.update(password, 0, password.length);
+        updateInt(digest, salt.length);
+        digest.update(salt, 0, salt.length);
+        updateInt(digest, secret.length);
+        digest.update(secret, 0, secret.length);
+        updateInt(digest, associatedData.length);
+        digest.update(associatedData, 0, associatedData.length);
+
+        byte[] h0 = new byte[PREHASH_LENGTH + 8];
+        digest.doFinal(h0, 0);
+        return h0;
+    }
+
+    private static void updateInt(Blake2bDigest digest, int value) {
+        digest.update((byte) value);
+        digest.update((byte) (value >>> 8));
+        digest.update((byte) (value >>> 16));
+        digest.update((byte) (value >>> 24));
+    }
+
+    // Variable-length hash H' (RFC 9106 section 3.3)
+    private static void hashLong(byte[] input, byte[] out) {
+        int outLength = out.length;
+        if (outLength <= 64) {
+            Blake2bDigest digest = new Blake2bDigest(outLength * 8);
+            updateInt(digest, outLength);
+            digest.update(input, 0, input.length);
+            digest.doFinal(out, 0);
+            return;
+        }
+
+        Blake2bDigest digest = new Blake2bDigest(512);
+        byte[] v = new byte[64];
+        updateInt(digest, outLength);
+        digest.update(input, 0, input.length);
+        digest.doFinal(v, 0);
+        System.arraycopy(v, 0, out, 0, 32);
+
+        int pos = 32;
+        int rounds = (outLength + 31) / 32 - 2;
+        for (int i = 1; i < rounds; i++) {
+            digest.update(v, 0, v.length);
+            digest.doFinal(v, 0);
+            System.arraycopy(v, 0, out, pos, 32);
+            pos += 32;
+        }
+
+        Blake2bDigest last = new Blake2bDigest((outLength - pos) * 8);
+        last.update(v, 0, v.length);
+        last.doFinal(out, pos);
+        Arrays.fill(v, (byte) 0);
+    }
+
+    /** One derivation's geometry and block matrix. */
+    private static final class Derivation {
+        final int lanes;
+        final int iterations;
+        final int segmentLength;
+        final int laneLength;
+        final int memoryBlocks;
+        long[] memory;
+
+        Derivation(int iterations, int memoryKb, int lanes) {
+            this.lanes = lanes;
+            this.iterations = iterations;
+            int blocks = Math.max(memoryKb, 2 * SYNC_POINTS * lanes);
+            segmentLength = blocks / (SYNC_POINTS * lanes);
+            laneLength = segmentLength * SYNC_POINTS;
+            memoryBlocks = laneLength * lanes;
+        }
+
+        // First two blocks of each lane come from H0 || blockIndex || lane
+        void initialBlocks(byte[] h0) {
+            byte[] block = new byte[BLOCK_BYTES];
+            for (int lane = 0; lane < lanes; lane++) {
+                for (int i = 0; i < 2; i++) {
+                    intToLittleEndian(i, h0, PREHASH_LENGTH);
+                    intToLittleEndian(lane, h0, PREHASH_LENGTH + 4);
+                    hashLong(h0, block);
+                    bytesToBlock(block, memory, (lane * laneLength + i) * BLOCK_LONGS);
+                }
+            }
+            Arrays.fill(block, (byte) 0);
+        }
+
+        void fillSegment(int pass, int slice, int lane, Scratch scratch) {
+            boolean dataIndependent = pass == 0 && slice < SYNC_POINTS / 2;
+            int startIndex = pass == 0 && slice == 0 ? 2 : 0;
+
+            if (dataIndependent) {
+                long[] input = scratch.input;
+                Arrays.fill(input, 0L);
+                input[0] = pass;
+                input[1] = lane;
+                input[2] = slice;
+                input[3] = memoryBlocks;
+                input[4] = iterations;
+                input[5] = TYPE_ID;
+                if (startIndex != 0) {
+                    nextAddresses(scratch);
+                }
+            }
+
+            int currentOffset = lane * laneLength + slice * segmentLength + startIndex;
+            for (int index = startIndex; index < segmentLength; index++, currentOffset++) {
+                int prevOffset = currentOffset % laneLength == 0 ? currentOffset + laneLength - 1 : currentOffset - 1;
+
+                long pseudoRandom;
+                if (dataIndependent) {
+                    if (index % BLOCK_LONGS == 0) {
+                        nextAddresses(scratch);
+                    }
+                    pseudoRandom = scratch.address[index % BLOCK_LONGS];
+                } else {
+                    pseudoRandom = memory[prevOffset * BLOCK_LONGS];
+                }
+
+                int refLane = pass == 0 && slice == 0 ? lane : (int) ((pseudoRandom >>> 32) % lanes);
+                int refIndex = referenceIndex(pass, slice, index, pseudoRandom, refLane == lane);
+                fillBlock(memory, prevOffset * BLOCK_LONGS, (refLane * laneLength + refIndex) * BLOCK_LONGS,
+                        currentOffset * BLOCK_LONGS, pass > 0, scratch);
+            }
+        }
+
+        // Maps J1 onto the window of blocks this position may reference (RFC 9106 section 3.4.1.2)
+        private int referenceIndex(int pass, int slice, int index, long pseudoRandom, boolean sameLane) {
+            long areaSize;
+            if (pass == 0) {
+                if (slice == 0) {
+                    areaSize = index - 1;
+                } else if (sameLane) {
+                    areaSize = slice * segmentLength + index - 1;
+                } else {
+                    areaSize = slice * segmentLength + (index == 0 ? -1 : 0);
+                }
+            } else if (sameLane) {
+                areaSize = laneLength - segmentLength + index - 1;
+            } else {
+                areaSize = laneLength - segmentLength + (index == 0 ? -1 : 0);
+            }
+
+            long relative = pseudoRandom & 0xFFFFFFFFL;
+            relative = (relative * relative) >>> 32;
+            relative = areaSize - 1 - ((areaSize * relative) >>> 32);
+
+            int start = pass == 0 || slice == SYNC_POINTS - 1 ? 0 : (slice + 1) * segmentLength;
+            return (int) ((start + relative) % laneLength);
+        }
+
+        // XOR of every lane's last block, hashed to the requested length
+        byte[] finish(int outLength) {
+            long[] c = new long[BLOCK_LONGS];
+            for (int lane = 0; lane < lanes; lane++) {
+                int offset = (lane * laneLength + laneLength - 1) * BLOCK_LONGS;
+                for (int i = 0; i < BLOCK_LONGS; i++) {
+                    c[i] ^= memory[offset + i];
+                }
+            }
+            byte[] block = new byte[BLOCK_BYTES];
+            for (int i = 0; i < BLOCK_LONGS; i++) {
+                longToLittleEndian(c[i], block, i * 8);
+            }
+            byte[] out = new byte[outLength];
+            hashLong(block, out);
+            Arrays.fill(c, 0L);
+            Arrays.fill(block, (byte) 0);
+            return out;
+        }
+    }
+
+    // Address block for data-independent indexing: G(0, G(0, input)) after bumping the counter
+    private static void nextAddresses(Scratch scratch) {
+        scratch.input[6]++;
+        compress(scratch.input, scratch.address, scratch);
+        compress(scratch.address, scratch.address, scratch);
+    }
+
+    // out = P(in) ^ in, i.e. G(0, in)
+    private static void compress(long[] in, long[] out, Scratch scratch) {
+        long[] r = scratch.r;
+        System.arraycopy(in, 0, r, 0, BLOCK_LONGS);
+        permute(r);
+        for (int i = 0; i < BLOCK_LONGS; i++) {
+            out[i] = r[i] ^ in[i];
+        }
+    }
+
+    // G(prev, ref), XORed into the current block from the second pass on
+    private static void fillBlock(long[] memory, int prev, int ref, int current, boolean withXor, Scratch scratch) {
+        long[] r = scratch.r;
+        long[] tmp = scratch.tmp;
+        for (int i = 0; i < BLOCK_LONGS; i++) {
+            long x = memory[prev + i] ^ memory[ref + i];
+            r[i] = x;
+            tmp[i] = withXor ? x ^ memory[current + i] : x;
+        }
+        permute(r);
+        for (int i = 0; i < BLOCK_LONGS; i++) {
+            memory[current + i] = r[i] ^ tmp[i];
+        }
+    }
+
+    // Blake2b-based permutation P over the 8 rows, then the 8 columns, of a block
+    private static void permute(long[] v) {
+        for (int i = 0; i < 8; i++) {
+            int b = 16 * i;
+            round(v, b, b + 1, b + 2, b + 3, b + 4, b + 5, b + 6, b + 7,
+                    b + 8, b + 9, b + 10, b + 11, b + 12, b + 13, b + 14, b + 15);
+        }
+        for (int i = 0; i < 8; i++) {
+            int b = 2 * i;
+            round(v, b, b + 1, b + 16, b + 17, b + 32, b + 33, b + 48, b + 49,
+                    b + 64, b + 65, b + 80, b + 81, b + 96, b + 97, b + 112, b + 113);
+        }
+    }
+
+    private static void round(long[] v, int v0, int v1, int v2, int v3, int v4, int v5, int v6, int v7,
+                              int v8, int v9, int v10, int v11, int v12, int v13, int v14, int v15) {
+        mix(v, v0, v4, v8, v12);
+        mix(v, v1, v5, v9, v13);
+        mix(v, v2, v6, v10, v14);
+        mix(v, v3, v7, v11, v15);
+        mix(v, v0, v5, v10, v15);
+        mix(v, v1, v6, v11, v12);
+        mix(v, v2, v7, v8, v13);
+        mix(v, v3, v4, v9, v14);
+    }
+
+    // GB with the BlaMka multiplication
+    private static void mix(long[] v, int a, int b, int c, int d) {
+        long va = v[a], vb = v[b], vc = v[c], vd = v[d];
+        va = va + vb + 2 * (va & 0xFFFFFFFFL) * (vb & 0xFFFFFFFFL);
+        vd = Long.rotateRight(vd ^ va, 32);
+        vc = vc + vd + 2 * (vc & 0xFFFFFFFFL) * (vd & 0xFFFFFFFFL);
+        vb = Long.rotateRight(vb ^ vc, 24);
+        va = va + vb + 2 * (va & 0xFFFFFFFFL) * (vb & 0xFFFFFFFFL);
+        vd = Long.rotateRight(vd ^ va, 16);
+        vc = vc + vd + 2 * (vc & 0xFFFFFFFFL) * (vd & 0xFFFFFFFFL);
+        vb = Long.rotateRight(vb ^ vc, 63);
+        v[a] = va;
+        v[b] = vb;
+        v[c] = vc;
+        v[d] = vd;
+    }
+
+    private static void bytesToBlock(byte[] in, long[] memory, int offset) {
+        for (int i = 0; i < BLOCK_LONGS; i++) {
+            long value = 0;
+            for (int j = 7; j >= 0; j--) {
+                value = (value << 8) | (in[i * 8 + j] & 0xff);
+            }
+            memory[offset + i] = value;
+        }
+    }
+
+    private static void longToLittleEndian(long value, byte[] out, int offset) {
+        for (int j = 0; j < 8; j++) {
+            out[offset + j] = (byte) (value >>> (8 * j));
+        }
+    }
+
+    private static void intToLittleEndian(int value, byte[] out, int offset) {
+        out[offset] = (byte) value;
+        out[offset + 1] = (byte) (value >>> 8);
+        out[offset + 2] = (byte) (value >>> 16);
+        out[offset + 3] = (byte) (value >>> 24);
+    }
+
+    /** Per-lane working blocks, so only the shared matrix lives in the pool. */
+    private static final class Scratch {
+        final long[] r = new long[BLOCK_LONGS];
+        final long[] tmp = new long[BLOCK_LONGS];
+        final long[] input = new long[BLOCK_LONGS];
+        final long[] address = new long[BLOCK_LONGS];
+
+        void wipe() {
+            Arrays.fill(r, 0L);
+            Arrays.fill(tmp, 0L);
+            Arrays.fill(input, 0L);
+            Arrays.fill(address, 0L);
+        }
+    }
+
+    private static final class IdleArena {
+        final long[] memory;
+        final long since;
+
+        IdleArena(long[] memory, long since) {
+            this.memory = memory;
+            this.since = since;
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /** Allocation counters since the engine was created. */
+    public static final class Stats {
+        public final long allocations;
+        public final long reuses;
+        public final long bytesAllocated;
+        /** Bytes that would have been allocated without the pool. */
+        public final long bytesReused;
+        /** Bytes held by idle arenas when the snapshot was taken. */
+        public final long idleBytes;
+
+        Stats(long allocations, long reuses, long bytesAllocated, long bytesReused, long idleBytes) {
+            this.allocations = allocations;
+            this.reuses = reuses;
+            this.bytesAllocated = bytesAllocated;
+            this.bytesReused = bytesReused;
+            this.idleBytes = idleBytes;
+        }
+
+        @Override
+        public String toString() {
+            return "Argon2 arenas: " + allocations + " allocated (" + (bytesAllocated >> 20) + " MiB), "
+                    + reuses + " reused (" + (bytesReused >> 20) + " MiB saved), " + (idleBytes >> 20) + " MiB idle";
+        }
+    }
+}
@@ -5,214 +5,252 @@ import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.widget.EditText;
 import android.widget.ImageView;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
-import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.lifecycle.ViewModelProvider;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.encrypto.app.models.ChatMessage;
-import com.google.firebase.firestore.DocumentSnapshot;
-import com.google.firebase.firestore.EventListener;
-import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.FirebaseFirestoreException;
-import com.google.firebase.firestore.QuerySnapshot;
-import com.google.firebase.firestore.Query;
-import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.database.DatabaseException;
 
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
 
-public class ChatRoomActivity extends AppCompatActivity {
+/**
+ * The chat screen. Room state lives in a {@link RoomSession} kept by {@link RoomViewModel}, so a
+ * rotation re-attaches to the same seat, key, listeners and messages instead of joining again.
+ */
+public class ChatRoomActivity extends AppCompatActivity implements RoomSession.Listener {
 
-    private String roomName, alias, roomPassword;
-    private FirebaseFirestore db;
-    private String myParticipantId; // To remove self on destroy
-    
-    private TextView tvRoomName, tvConnectionStatus, tvUserCount;
+    private static final int LOAD_OLDER_THRESHOLD = 5; // Rows from the top that trigger a page load
+
+    private RoomSession session;
+    private MessageList messageList;
+
+    private TextView tvRoomName, tvConnectionStatus, tvUserCount, btnDecryptRoom;
     private EditText etMessage;
     private ImageView btnSend, btnBack;
     private RecyclerView rvChatMessages;
-    
+
     private ChatAdapter chatAdapter;
-    private List<ChatMessage> messageList;
+    private LinearLayoutManager layoutManager;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_chat_room);
 
-        // Get Intent Data
-        roomName = getIntent().getStringExtra("ROOM_NAME");
-        alias = getIntent().getStringExtra("ALIAS");
-        roomPassword = getIntent().getStringExtra("PASSWORD");
+        // Get Intent Data; only the first onCreate of this screen uses it
+        String roomName = getIntent().getStringExtra("ROOM_NAME");
+        String alias = getIntent().getStringExtra("ALIAS");
+        String roomPassword = getIntent().getStringExtra("PASSWORD");
+        int capacity = getIntent().getIntExtra("CAPACITY", RoomPresence.DEFAULT_CAPACITY);
 
-        // Firestore Setup
-        db = FirebaseFirestore.getInstance();
+        RoomViewModel viewModel = new ViewModelProvider(this).get(RoomViewModel.class);
+        session = viewModel.open(this, roomName, alias, roomPassword, capacity);
+        messageList = session.getMessages();
 
         initializeViews();
         setupRecycler();
         setupListeners();
-        checkUserCountAndJoin();
+        session.attach(this);
     }
 
     private void initializeViews() {
         tvRoomName = findViewById(R.id.tvRoomName);
         tvConnectionStatus = findViewById(R.id.tvConnectionStatus);
         tvUserCount = findViewById(R.id.tvUserCount);
+        btnDecryptRoom = findViewById(R.id.btnDecryptRoom);
         etMessage = findViewById(R.id.etMessage);
         btnSend = findViewById(R.id.btnSend);
         btnBack = findViewById(R.id.btnBack);
         rvChatMessages = findViewById(R.id.rvChatMessages);
 
-        tvRoomName.setText("Room: " + roomName);
+        tvRoomName.setText("Room: " + session.getRoomName());
+        btnDecryptRoom.setText(session.isRoomDecryptionEnabled() ? "Stop" : "Decrypt room");
     }
 
     private void setupRecycler() {
-        messageList = new ArrayList<>();
         chatAdapter = new ChatAdapter(messageList);
-        rvChatMessages.setLayoutManager(new LinearLayoutManager(this));
+        layoutManager = new LinearLayoutManager(this);
+        rvChatMessages.setLayoutManager(layoutManager);
         rvChatMessages.setAdapter(chatAdapter);
+        if (messageList.size() > 0) {
+            rvChatMessages.scrollToPosition(messageList.size() - 1);
+        }
+
+        rvChatMessages.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                int first = layoutManager.findFirstVisibleItemPosition();
+                int last = layoutManager.findLastVisibleItemPosition();
+                // Also runs with dy == 0 after every layout, so list updates reprioritize too
+                session.setVisibleRange(first, last);
+                if (dy < 0 && first != RecyclerView.NO_POSITION && first <= LOAD_OLDER_THRESHOLD) {
+                    session.loadOlder();
+                } else if (dy > 0 && last >= messageList.size() - RoomSession.PAGE_SIZE) {
+                    session.trimHistory();
+                }
+            }
+        });
+
+        // Forward list deltas as precise notifications so only touched rows rebind
+        messageList.setObserver(new MessageList.Observer() {
+            @Override
+            public void onInserted(int position, int count) {
+                chatAdapter.notifyItemRangeInserted(position, count);
+            }
+
+            @Override
+            public void onChanged(int position) {
+                chatAdapter.notifyItemChanged(position);
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                chatAdapter.notifyItemMoved(fromPosition, toPosition);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                chatAdapter.notifyItemRangeRemoved(position, count);
+            }
+        });
     }
 
     private void setupListeners() {
         btnBack.setOnClickListener(v -> finish());
 
         btnSend.setOnClickListener(v -> sendMessage());
+
+        btnDecryptRoom.setOnClickListener(v -> toggleDecryptRoom());
     }
 
-    private void checkUserCountAndJoin() {
-        // Check "participants" subcollection count
-        db.collection("rooms").document(roomName).collection("participants")
-            .get()
-            .addOnSuccessListener(queryDocumentSnapshots -> {
-                int count = queryDocumentSnapshots.size();
-                if (count >= 10) {
-                    Toast.makeText(ChatRoomActivity.this, "Room is full (Max 10)", Toast.LENGTH_LONG).show();
-                    finish();
-                } else {
-                    joinPresence();
-                    listenForMessages();
-                    listenForPresence();
-                    tvConnectionStatus.setText("Connected as " + alias);
-                }
-            })
-            .addOnFailureListener(e -> {
-                String errorMsg = e.getMessage();
-                if (e instanceof com.google.firebase.firestore.FirebaseFirestoreException) {
-                    com.google.firebase.firestore.FirebaseFirestoreException fe = (com.google.firebase.firestore.FirebaseFirestoreException) e;
-                    if (fe.getCode() == com.google.firebase.firestore.FirebaseFirestoreException.Code.PERMISSION_DENIED) {
-                        errorMsg = "Access Denied: Check Firebase Console Rules";
-                    }
-                }
-                Toast.makeText(ChatRoomActivity.this, "Connection failed: " + errorMsg, Toast.LENGTH_LONG).show();
-                finish();
-            });
+    private void toggleDecryptRoom() {
+        if (session.isRoomDecryptionEnabled()) {
+            session.stopRoomDecryption();
+            btnDecryptRoom.setText("Decrypt room");
+        } else {
+            if (!session.startRoomDecryption(layoutManager.findFirstVisibleItemPosition(),
+                    layoutManager.findLastVisibleItemPosition())) {
+                Toast.makeText(this, "Securing room, please wait...", Toast.LENGTH_SHORT).show();
+                return;
+            }
+            btnDecryptRoom.setText("Stop");
+        }
+        // Rows switch between "Tap to Decrypt" and the queued state
+        chatAdapter.notifyItemRangeChanged(0, messageList.size());
     }
 
-    private void joinPresence() {
-        Map<String, Object> participant = new HashMap<>();
-        participant.put("alias", alias);
-        participant.put("timestamp", System.currentTimeMillis());
-
-        db.collection("rooms").document(roomName).collection("participants")
-            .add(participant)
-            .addOnSuccessListener(documentReference -> {
-                myParticipantId = documentReference.getId();
-            })
-            .addOnFailureListener(e -> {
-                Toast.makeText(ChatRoomActivity.this, "Failed to join room presence: " + e.getMessage(), Toast.LENGTH_LONG).show();
-            });
+    private void sendMessage() {
+        String text = etMessage.getText().toString().trim();
+        if (TextUtils.isEmpty(text)) return;
+
+        if (!session.send(text)) {
+            Toast.makeText(this, "Securing room, please wait...", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        etMessage.setText("");
+        rvChatMessages.scrollToPosition(messageList.size() - 1);
     }
-    
-    private void listenForPresence() {
-        db.collection("rooms").document(roomName).collection("participants")
-            .addSnapshotListener((value, error) -> {
-                if (error != null) return;
-                if (value != null) {
-                    tvUserCount.setText(value.size() + "/10");
-                }
-            });
+
+    // --- RoomSession.Listener ---
+
+    @Override
+    public void onJoined(String alias) {
+        tvConnectionStatus.setText("Connected as " + alias);
     }
 
-    private void listenForMessages() {
-        db.collection("rooms").document(roomName).collection("messages")
-            .orderBy("timestamp", Query.Direction.ASCENDING)
-            .addSnapshotListener(new EventListener<QuerySnapshot>() {
-                @Override
-                public void onEvent(@Nullable QuerySnapshot value, @Nullable FirebaseFirestoreException error) {
-                    if (error != null) {
-                        Toast.makeText(ChatRoomActivity.this, "Error loading messages", Toast.LENGTH_SHORT).show();
-                        return;
-                    }
-                    
-                    if (value != null) {
-                        messageList.clear();
-                        for (DocumentSnapshot doc : value.getDocuments()) {
-                            ChatMessage msg = doc.toObject(ChatMessage.class);
-                            if (msg != null) {
-                                messageList.add(msg);
-                            }
-                        }
-                        chatAdapter.notifyDataSetChanged();
-                        if (!messageList.isEmpty()) {
-                            rvChatMessages.scrollToPosition(messageList.size() - 1);
-                        }
-                    }
-                }
-            });
+    @Override
+    public void onRoomFull(long capacity) {
+        Toast.makeText(this, "Room is full (Max " + capacity + ")", Toast.LENGTH_LONG).show();
+        finish();
     }
 
-    private void sendMessage() {
-        String text = etMessage.getText().toString().trim();
-        if (TextUtils.isEmpty(text)) return;
+    @Override
+    public void onJoinFailed(Exception e) {
+        String errorMsg = e.getMessage();
+        if (e instanceof DatabaseException && errorMsg != null && errorMsg.contains("Permission denied")) {
+            errorMsg = "Access Denied: Check Firebase Console Rules";
+        }
+        Toast.makeText(this, "Connection failed: " + errorMsg, Toast.LENGTH_LONG).show();
+        finish();
+    }
+
+    @Override
+    public void onUserCountChanged(long count, long capacity) {
+        tvUserCount.setText(count + "/" + capacity);
+    }
+
+    @Override
+    public void onLiveMessages(boolean newest, long renderStart) {
+        recordRenderDelay(renderStart);
+        if (newest) {
+            rvChatMessages.scrollToPosition(messageList.size() - 1);
+        }
+    }
 
-        try {
-            // ENCRYPT THE MESSAGE WITH ROOM PASSWORD
-            String encryptedText = CryptoUtils.encrypt(text, roomPassword);
-            
-            ChatMessage message = new ChatMessage(alias, encryptedText, System.currentTimeMillis());
-            
-            db.collection("rooms").document(roomName).collection("messages")
-                .add(message)
-                .addOnSuccessListener(documentReference -> {
-                     // Only clear input if successful
-                     etMessage.setText(""); 
-                })
-                .addOnFailureListener(e -> Toast.makeText(this, "Failed to send: " + e.getMessage(), Toast.LENGTH_LONG).show());
-            
-        } catch (Exception e) {
-            Toast.makeText(this, "Encryption Error: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+    // Keep the row the user is looking at in place while rows appear above it
+    @Override
+    public void onOlderPage(List<ChatMessage> page) {
+        int first = layoutManager.findFirstVisibleItemPosition();
+        View firstView = layoutManager.findViewByPosition(first);
+        int offset = firstView != null ? firstView.getTop() - rvChatMessages.getPaddingTop() : 0;
+        int inserted = session.prependOlder(page);
+        if (first != RecyclerView.NO_POSITION) {
+            layoutManager.scrollToPositionWithOffset(first + inserted, offset);
         }
     }
 
+    @Override
+    public void onMessageChanged(ChatMessage message) {
+        int position = messageList.indexOf(message);
+        if (position >= 0) {
+            chatAdapter.notifyItemChanged(position);
+        }
+    }
+
+    @Override
+    public void onError(String message) {
+        Toast.makeText(this, message, Toast.LENGTH_SHORT).show();
+    }
+
+    // Snapshot delivery until the list has been laid out and is about to draw
+    private void recordRenderDelay(long start) {
+        if (start == 0L) return;
+        rvChatMessages.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                rvChatMessages.getViewTreeObserver().removeOnPreDrawListener(this);
+                Metrics.record(Metrics.Stage.SNAPSHOT_RENDER, start);
+                return true;
+            }
+        });
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        // Remove self from presence if we have an ID
-        if (myParticipantId != null) {
-            db.collection("rooms").document(roomName).collection("participants")
-                .document(myParticipantId)
-                .delete();
-        }
+        // The session outlives a rotation; RoomViewModel closes it once the screen is finished
+        session.detach(this);
+        messageList.setObserver(null);
     }
 
     // --- Inner Adapter Class ---
     private class ChatAdapter extends RecyclerView.Adapter<ChatAdapter.ChatViewHolder> {
 
-        private List<ChatMessage> messages;
+        private MessageList messages;
 
-        public ChatAdapter(List<ChatMessage> messages) {
+        public ChatAdapter(MessageList messages) {
             this.messages = messages;
         }
 
@@ -227,24 +265,57 @@ public class ChatRoomActivity extends AppCompatActivity {
         public void onBindViewHolder(@NonNull ChatViewHolder holder, int position) {
             ChatMessage msg = messages.get(position);
             holder.tvSender.setText(msg.senderAlias);
-            
+
             SimpleDateFormat sdf = new SimpleDateFormat("hh:mm a", Locale.getDefault());
             holder.tvTimestamp.setText(sdf.format(new Date(msg.timestamp)));
 
+            if (session.isFailed(msg)) {
+                holder.tvTimestamp.setText("Not sent · Tap to retry");
+                holder.itemView.setOnClickListener(v -> session.retry(msg));
+            } else {
+                if (session.isSending(msg)) {
+                    holder.tvTimestamp.setText("Sending...");
+                }
+                holder.itemView.setOnClickListener(null);
+                holder.itemView.setClickable(false);
+            }
+
+            // Already decrypted earlier: show the plaintext straight away
+            String cached = session.getPlaintext(msg);
+            if (cached != null) {
+                holder.tvMessage.setText(cached);
+                holder.btnDecrypt.setVisibility(View.GONE);
+                return;
+            }
+
+            // Own message whose plaintext was evicted before it was even encrypted: nothing to show yet
+            if (msg.payload == null && msg.encryptedContent == null) {
+                holder.tvMessage.setText("");
+                holder.btnDecrypt.setVisibility(View.GONE);
+                return;
+            }
+
             // DEFAULT: Show Encrypted Content
-            holder.tvMessage.setText(msg.encryptedContent);
+            holder.tvMessage.setText(msg.payload != null
+                    ? CryptoUtils.encodeBase64(msg.payload.toBytes())
+                    : msg.encryptedContent);
             holder.btnDecrypt.setVisibility(View.VISIBLE);
+
+            // Room decryption or an earlier tap will get to this row; the session rebinds it when done
+            if (session.isDecrypting(msg)) {
+                holder.btnDecrypt.setText("Decrypting...");
+                holder.btnDecrypt.setEnabled(false);
+                holder.btnDecrypt.setOnClickListener(null);
+                return;
+            }
+
+            holder.btnDecrypt.setEnabled(true);
             holder.btnDecrypt.setText("Tap to Decrypt");
 
             // ON CLICK: Decrypt
             holder.btnDecrypt.setOnClickListener(v -> {
-                try {
-                    String decryptedText = CryptoUtils.decrypt(msg.encryptedContent, roomPassword);
-                    holder.tvMessage.setText(decryptedText);
-                    holder.btnDecrypt.setVisibility(View.GONE); // Hide button after decrypting
-                } catch (Exception e) {
-                    Toast.makeText(ChatRoomActivity.this, "Decryption Failed", Toast.LENGTH_SHORT).show();
-                }
+                session.decrypt(msg);
+                notifyItemChanged(holder.getAdapterPosition());
             });
         }
 
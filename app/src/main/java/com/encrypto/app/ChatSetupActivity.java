@@ -10,7 +10,7 @@ import androidx.appcompat.app.AppCompatActivity;
 
 public class ChatSetupActivity extends AppCompatActivity {
 
-    private EditText etRoomName, etAlias, etRoomPassword;
+    private EditText etRoomName, etAlias, etRoomPassword, etRoomCapacity;
     private Button btnJoinRoom;
 
     @Override
@@ -21,6 +21,7 @@ public class ChatSetupActivity extends AppCompatActivity {
         etRoomName = findViewById(R.id.etRoomName);
         etAlias = findViewById(R.id.etAlias);
         etRoomPassword = findViewById(R.id.etRoomPassword);
+        etRoomCapacity = findViewById(R.id.etRoomCapacity);
         btnJoinRoom = findViewById(R.id.btnJoinRoom);
         
         android.widget.ImageView btnSuggestAlias = findViewById(R.id.btnSuggestAlias);
@@ -56,6 +57,22 @@ public class ChatSetupActivity extends AppCompatActivity {
             Toast.makeText(this, "Please fill all fields", Toast.LENGTH_SHORT).show();
             return;
         }
+
+        // Only applies if this join creates the room; existing rooms keep their capacity
+        int capacity = RoomPresence.DEFAULT_CAPACITY;
+        String capacityRaw = etRoomCapacity.getText().toString().trim();
+        if (!TextUtils.isEmpty(capacityRaw)) {
+            try {
+                capacity = Integer.parseInt(capacityRaw);
+            } catch (NumberFormatException e) {
+                capacity = -1; // Too many digits for an int: out of range like any other value
+            }
+            if (capacity < RoomPresence.MIN_CAPACITY || capacity > RoomPresence.MAX_CAPACITY) {
+                Toast.makeText(this, "Capacity must be between " + RoomPresence.MIN_CAPACITY + " and "
+                        + RoomPresence.MAX_CAPACITY, Toast.LENGTH_SHORT).show();
+                return;
+            }
+        }
         
         // In a real production app, checking user count synchronously before joining might be better,
         // but for now we proceed and let ChatRoomActivity handle the enforcing or just checking.
@@ -65,6 +82,7 @@ public class ChatSetupActivity extends AppCompatActivity {
         intent.putExtra("ROOM_NAME", roomName);
         intent.putExtra("ALIAS", alias);
         intent.putExtra("PASSWORD", password);
+        intent.putExtra("CAPACITY", capacity);
         startActivity(intent);
     }
 }
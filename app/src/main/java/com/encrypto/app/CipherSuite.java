@@ -0,0 +1,185 @@
+package com.encrypto.app;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * AEAD ciphers an envelope can be sealed with.
+ *
+ * AES-GCM is the default and is written without a suite byte, exactly as before. Other suites set
+ * a flag in the version byte and put their id right after it. Every suite takes a 256-bit key, a
+ * 96-bit nonce and a 128-bit tag, so only the header differs. ChaCha20-Poly1305 comes from the
+ * platform where it exists (API 28 and up) and from the bundled Bouncy Castle provider otherwise.
+ * Android's Conscrypt registers it as "ChaCha20/Poly1305/NoPadding", the JDK as "ChaCha20-Poly1305",
+ * so each suite lists the names to try in order.
+ */
+public enum CipherSuite {
+    AES_GCM(0x00, "AES", "AES/GCM/NoPadding"),
+    CHACHA20_POLY1305(0x01, "ChaCha20", "ChaCha20/Poly1305/NoPadding", "ChaCha20-Poly1305");
+
+    // ChaCha20 must win by this much: AES-GCM payloads are readable by every client version
+    private static final double SWITCH_MARGIN = 1.25;
+    private static final int BENCHMARK_BYTES = 16 * 1024;
+    private static final int ROUNDS_PER_PASS = 16;
+    // A JIT may compile a suite's fast path only after thousands of operations (HotSpot's AES-GCM
+    // intrinsics: two to three seconds on one core), and until then the suite looks stable, just
+    // slow. Passes run until the last SETTLED_PASSES medians agree; a result for ChaCha20, the one
+    // that is hard to take back, also needs WARMUP_NANOS of passes. A device that never settles is
+    // judged on its last passes at MAX_NANOS.
+    private static final long WARMUP_NANOS = 4_000_000_000L;
+    private static final long MAX_NANOS = 8_000_000_000L;
+    private static final int SETTLED_PASSES = 5;
+    private static final double SETTLED_SPREAD = 1.10;
+
+    public final int id;
+    final String keyAlgorithm;
+    private final String[] transformations;
+
+    CipherSuite(int id, String keyAlgorithm, String... transformations) {
+        this.id = id;
+        this.keyAlgorithm = keyAlgorithm;
+        this.transformations = transformations;
+    }
+
+    /** The suite for a header id; unknown ids throw IllegalArgumentException. */
+    public static CipherSuite fromId(int id) {
+        for (CipherSuite suite : values()) {
+            if (suite.id == id) return suite;
+        }
+        throw new IllegalArgumentException("Unsupported cipher suite: " + id);
+    }
+
+    Cipher newCipher() throws GeneralSecurityException {
+        GeneralSecurityException missing = null;
+        for (String transformation : transformations) {
+            try {
+                return Cipher.getInstance(transformation);
+            } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+                if (missing == null) missing = e;
+            }
+        }
+        if (this == AES_GCM) throw missing;
+        return Cipher.getInstance(transformations[transformations.length - 1], BundledProvider.INSTANCE);
+    }
+
+    AlgorithmParameterSpec parameterSpec(byte[] nonce, int offset, int length) {
+        return this == AES_GCM
+                ? new GCMParameterSpec(128, nonce, offset, length)
+                : new IvParameterSpec(nonce, offset, length);
+    }
+
+    /**
+     * Times 16 KiB encryptions with each suite and returns the one to use on this device. The suites
+     * take turns, pass by pass, until their timings have settled, and are then compared on the
+     * median of each suite's last passes. Takes a fraction of a second where AES-GCM is fast from
+     * the start, up to eight seconds of one core otherwise; call from a background thread once the
+     * app is idle.
+     */
+    public static CipherSuite selectFastest() {
+        Benchmark aes = Benchmark.create(AES_GCM);
+        Benchmark chacha = Benchmark.create(CHACHA20_POLY1305);
+        if (aes == null || chacha == null) {
+            return AES_GCM;
+        }
+        try {
+            // The last SETTLED_PASSES pass medians of each suite, oldest overwritten first
+            long[] aesPasses = new long[SETTLED_PASSES];
+            long[] chachaPasses = new long[SETTLED_PASSES];
+            int passes = 0;
+            boolean chachaWins;
+            long start = System.nanoTime();
+            while (true) {
+                aesPasses[passes % SETTLED_PASSES] = aes.pass();
+                chachaPasses[passes % SETTLED_PASSES] = chacha.pass();
+                passes++;
+                int kept = Math.min(passes, SETTLED_PASSES);
+                chachaWins = median(aesPasses, 0, kept) > median(chachaPasses, 0, kept) * SWITCH_MARGIN;
+                long elapsed = System.nanoTime() - start;
+                if (elapsed >= MAX_NANOS) break;
+                if (passes >= SETTLED_PASSES && settled(aesPasses) && settled(chachaPasses)
+                        && (!chachaWins || elapsed >= WARMUP_NANOS)) break;
+            }
+            return chachaWins ? CHACHA20_POLY1305 : AES_GCM;
+        } catch (GeneralSecurityException e) {
+            return AES_GCM;
+        }
+    }
+
+    private static boolean settled(long[] passes) {
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for (long pass : passes) {
+            min = Math.min(min, pass);
+            max = Math.max(max, pass);
+        }
+        return max <= min * SETTLED_SPREAD;
+    }
+
+    private static long median(long[] values, int from, int to) {
+        long[] sorted = Arrays.copyOfRange(values, from, to);
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    // One suite's cipher, key and buffers, kept across passes so only encryption is timed
+    private static final class Benchmark {
+        private final CipherSuite suite;
+        private final Cipher cipher;
+        private final SecretKeySpec key;
+        private final byte[] nonce = new byte[12];
+        private final byte[] input = new byte[BENCHMARK_BYTES];
+        private final byte[] output = new byte[BENCHMARK_BYTES + 16];
+        private final long[] rounds = new long[ROUNDS_PER_PASS];
+        private long counter;
+
+        private Benchmark(CipherSuite suite, Cipher cipher, SecretKeySpec key) {
+            this.suite = suite;
+            this.cipher = cipher;
+            this.key = key;
+        }
+
+        // Null if the suite cannot run here
+        static Benchmark create(CipherSuite suite) {
+            try {
+                byte[] keyBytes = new byte[CryptoUtils.KEY_LENGTH];
+                new SecureRandom().nextBytes(keyBytes);
+                return new Benchmark(suite, suite.newCipher(), new SecretKeySpec(keyBytes, suite.keyAlgorithm));
+            } catch (GeneralSecurityException e) {
+                return null;
+            }
+        }
+
+        // Median round of one pass, in nanoseconds
+        long pass() throws GeneralSecurityException {
+            for (int round = 0; round < ROUNDS_PER_PASS; round++) {
+                // A fresh nonce each round: providers refuse to reuse one with the same key
+                long n = counter++;
+                for (int i = 0; i < 8; i++) {
+                    nonce[i] = (byte) (n >>> (8 * i));
+                }
+                long start = System.nanoTime();
+                cipher.init(Cipher.ENCRYPT_MODE, key, suite.parameterSpec(nonce, 0, nonce.length));
+                cipher.doFinal(input, 0, input.length, output, 0);
+                rounds[round] = System.nanoTime() - start;
+            }
+            return median(rounds, 0, ROUNDS_PER_PASS);
+        }
+    }
+
+    // Only built when the platform lacks a suite, so devices that have it never load the provider
+    private static final class BundledProvider {
+        static final Provider INSTANCE = new BouncyCastleProvider();
+    }
+}
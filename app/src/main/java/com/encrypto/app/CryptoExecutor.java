@@ -0,0 +1,222 @@
+package com.encrypto.app;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs CryptoUtils work off the UI thread.
+ *
+ * Every job belongs to an owner (usually the Activity that submitted it). Results are posted back to
+ * the main thread and silently dropped once the job or its owner has been cancelled, so a screen can
+ * throw away stale work on a mode switch or when it is closed. Submit, cancel and the busy listener
+ * must all be used from the main thread.
+ */
+public final class CryptoExecutor {
+
+    public interface Callback<T> {
+        void onSuccess(T result);
+
+        void onError(Exception e);
+    }
+
+    public interface BusyListener {
+        void onBusyChanged(boolean busy);
+    }
+
+    // Each Argon2 run holds 64 MiB, so keep the pool small and the backlog bounded
+    private static final int MAX_THREADS = 2;
+    private static final int MAX_QUEUED = 32;
+
+    private static CryptoExecutor instance;
+
+    private final ThreadPoolExecutor executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private final Map<Object, Set<Job<?>>> pendingByOwner = new HashMap<>();
+    private final Map<Object, BusyListener> busyListeners = new HashMap<>();
+
+    public static synchronized CryptoExecutor getInstance() {
+        if (instance == null) {
+            instance = new CryptoExecutor();
+        }
+        return instance;
+    }
+
+    private CryptoExecutor() {
+        int threads = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors() - 1));
+        executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(MAX_QUEUED), new CryptoThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues work for the given owner. The callback runs on the main thread unless the job is
+     * cancelled first.
+     */
+    public <T> Job<T> submit(Object owner, Callable<T> work, Callback<T> callback) {
+        Job<T> job = new Job<>(owner, work, callback);
+        track(job);
+        try {
+            job.future = executor.submit(job);
+        } catch (RejectedExecutionException e) {
+            final Exception error = new IllegalStateException("Too many crypto operations queued", e);
+            mainHandler.post(() -> job.deliver(null, error));
+        }
+        return job;
+    }
+
+    /** Cancels every pending job of the owner. Their callbacks will not run. */
+    public void cancelAll(Object owner) {
+        Set<Job<?>> jobs = pendingByOwner.get(owner);
+        if (jobs == null) return;
+        for (Job<?> job : jobs.toArray(new Job<?>[0])) {
+            job.cancel();
+        }
+    }
+
+    /** Reports when the owner goes from idle to having pending jobs and back. */
+    public void setBusyListener(Object owner, BusyListener listener) {
+        if (listener == null) {
+            busyListeners.remove(owner);
+        } else {
+            busyListeners.put(owner, listener);
+        }
+    }
+
+    public boolean isBusy(Object owner) {
+        Set<Job<?>> jobs = pendingByOwner.get(owner);
+        return jobs != null && !jobs.isEmpty();
+    }
+
+    /** Cancels the owner's jobs and forgets its listener. Call from onDestroy. */
+    public void release(Object owner) {
+        busyListeners.remove(owner);
+        cancelAll(owner);
+        pendingByOwner.remove(owner);
+    }
+
+    private void track(Job<?> job) {
+        Set<Job<?>> jobs = pendingByOwner.get(job.owner);
+        if (jobs == null) {
+            jobs = new HashSet<>();
+            pendingByOwner.put(job.owner, jobs);
+        }
+        jobs.add(job);
+        if (jobs.size() == 1) {
+            notifyBusy(job.owner, true);
+        }
+    }
+
+    private void untrack(Job<?> job) {
+        Set<Job<?>> jobs = pendingByOwner.get(job.owner);
+        if (jobs == null || !jobs.remove(job)) return;
+        if (jobs.isEmpty()) {
+            pendingByOwner.remove(job.owner);
+            notifyBusy(job.owner, false);
+        }
+    }
+
+    private void notifyBusy(Object owner, boolean busy) {
+        BusyListener listener = busyListeners.get(owner);
+        if (listener != null) {
+            listener.onBusyChanged(busy);
+        }
+    }
+
+    /**
+     * Handle to a queued operation. Cancelling interrupts the worker if it is still waiting, but a
+     * running key derivation cannot be stopped midway; its result is simply discarded.
+     */
+    public final class Job<T> implements Runnable {
+        private final Object owner;
+        private final Callable<T> work;
+        private final Callback<T> callback;
+
+        private volatile Future<?> future;
+        private volatile boolean cancelled;
+        private boolean finished; // Main thread only
+
+        private Job(Object owner, Callable<T> work, Callback<T> callback) {
+            this.owner = owner;
+            this.work = work;
+            this.callback = callback;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) return;
+            T result = null;
+            Exception error = null;
+            try {
+                result = work.call();
+            } catch (Exception e) {
+                error = e;
+            } catch (OutOfMemoryError e) {
+                // A large Argon2 arena on a small heap; report it so the job does not stay pending
+                error = new IllegalStateException("Not enough memory for this operation", e);
+            } catch (Throwable t) {
+                error = new ExecutionException(t);
+            }
+            if (cancelled) return;
+
+            final T finalResult = result;
+            final Exception finalError = error;
+            mainHandler.post(() -> deliver(finalResult, finalError));
+        }
+
+        private void deliver(T result, Exception error) {
+            if (finished || cancelled) return;
+            finished = true;
+            untrack(this);
+            if (error != null) {
+                callback.onError(error);
+            } else {
+                callback.onSuccess(result);
+            }
+        }
+
+        public void cancel() {
+            if (finished) return;
+            cancelled = true;
+            finished = true;
+            Future<?> f = future;
+            if (f != null) {
+                f.cancel(true);
+            }
+            untrack(this);
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private static class CryptoThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                r.run();
+            }, "crypto-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -1,162 +1,853 @@
 package com.encrypto.app;
 
 import android.util.Base64;
-import org.bouncycastle.crypto.generators.Argon2BytesGenerator;
-import org.bouncycastle.crypto.params.Argon2Parameters;
+import org.bouncycastle.crypto.PasswordConverter;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.generators.HKDFBytesGenerator;
+import org.bouncycastle.crypto.params.HKDFParameters;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
 import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import javax.crypto.Cipher;
-import javax.crypto.SecretKey;
-import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.SecretKeySpec;
 
 public class CryptoUtils {
 
     private static final int GCM_IV_LENGTH = 12;         // 96 bits, recommended for GCM
     private static final int GCM_TAG_LENGTH = 128;       // 128-bit authentication tag
-    private static final int SALT_LENGTH = 16;           // 128 bits
-    private static final int KEY_LENGTH = 32;            // 256 bits for AES-256
+    private static final int TAG_BYTES = GCM_TAG_LENGTH / 8;
+    static final int SALT_LENGTH = 16;                   // 128 bits
+    static final int KEY_LENGTH = 32;                    // 256 bits for AES-256
 
-    // Argon2id parameters – tuned for modern mobile devices
-    private static final int ARGON2_ITERATIONS = 4;
-    private static final int ARGON2_MEMORY = 64 * 1024;   // 64 MiB (in KB)
-    private static final int ARGON2_PARALLELISM = 2;
+    private static final byte LEGACY_VERSION = 0x02;         // Version 2 = Argon2id (KdfParams.LEGACY) + AES-GCM
+    private static final byte LEGACY_SESSION_VERSION = 0x03; // Version 3 = room key (KdfParams.LEGACY) + HKDF subkey + AES-GCM
+    private static final byte CURRENT_VERSION = 0x04;        // Version 4 = Argon2id (params in header) + AES-GCM
+    private static final byte SESSION_VERSION = 0x05;        // Version 5 = room key (params in header) + HKDF subkey + AES-GCM
 
-    private static final byte CURRENT_VERSION = 0x02;    // Version 2 = Argon2id + AES-GCM
+    // The high bits of the version byte carry format flags
+    private static final int VERSION_MASK = 0x1F;
+    private static final int FLAG_DEFLATE = 0x80;        // Plaintext was Deflate-compressed before encryption
+    private static final int FLAG_SUITE = 0x40;          // A cipher-suite byte follows the version byte
 
-    private static final SecureRandom secureRandom = new SecureRandom();
+    private static final int COMPRESSION_THRESHOLD = 128;            // Shorter inputs never shrink enough
+    private static final int COMPRESSION_SAMPLE = 1024;              // Prefix checked before deflating it all
+    private static final int INCOMPRESSIBLE_DISTINCT_BYTES = 200;    // Text uses far fewer byte values
+    private static final int MAX_INFLATED_LENGTH = 16 * 1024 * 1024; // Upper bound when decompressing
+
+    private static volatile boolean compressionEnabled = true;
+
+    // Argon2id settings for new payloads; replaced by the device calibration once it has run
+    private static volatile KdfParams kdfParams = KdfParams.LEGACY;
+
+    // AEAD for new payloads; ChaCha20-Poly1305 where the startup benchmark finds no fast AES
+    private static volatile CipherSuite cipherSuite = CipherSuite.AES_GCM;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static final byte[] SESSION_KEY_INFO = "Encrypto v3 message key".getBytes(StandardCharsets.UTF_8);
+
+    private static final int SESSION_HEADER_LENGTH = 1 + KdfParams.ENCODED_LENGTH + 2 * SALT_LENGTH + GCM_IV_LENGTH;
+
+    // Per thread: Cipher.getInstance() is a provider lookup on every call, and one shared
+    // SecureRandom makes every thread that needs a salt or nonce wait on the same lock.
+    // Ciphers are indexed by suite and created on first use.
+    private static final ThreadLocal<Cipher[]> ciphers = new ThreadLocal<Cipher[]>() {
+        @Override
+        protected Cipher[] initialValue() {
+            return new Cipher[CipherSuite.values().length];
+        }
+    };
+
+    private static final ThreadLocal<SecureRandom> randoms = new ThreadLocal<SecureRandom>() {
+        @Override
+        protected SecureRandom initialValue() {
+            return new SecureRandom();
+        }
+    };
+
+    // Fixed-size buffers for the ByteBuffer API, so a message costs no header-sized allocations
+    private static final ThreadLocal<Scratch> scratches = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
 
     /**
      * Encrypts plaintext using password.
-     * Output: Base64 string of [version(1) | salt(16) | nonce(12) | ciphertext | tag(16)]
+     * Output: Base64 string (no line wrapping) of [version(1) | kdfParams(3) | salt(16) | nonce(12) | ciphertext | tag(16)]
      */
     public static String encrypt(String plaintext, String password) throws Exception {
         if (plaintext == null || password == null) {
             throw new IllegalArgumentException("Plaintext and password must not be null");
         }
+        return encodeBase64(encryptBytes(plaintext.getBytes(StandardCharsets.UTF_8), password));
+    }
 
-        byte[] salt = new byte[SALT_LENGTH];
-        secureRandom.nextBytes(salt);
+    /**
+     * Decrypts a Base64 string produced by encrypt(). Wrapped (legacy) and unwrapped Base64 are both accepted.
+     */
+    public static String decrypt(String encryptedBase64, String password) throws Exception {
+        if (encryptedBase64 == null || password == null) {
+            throw new IllegalArgumentException("Input and password must not be null");
+        }
+        byte[] plaintextBytes = decryptBytes(decodeBase64(encryptedBase64), password);
+        return new String(plaintextBytes, StandardCharsets.UTF_8);
+    }
 
-        // Derive key using Argon2id via Bouncy Castle
-        byte[] keyBytes = deriveKey(password, salt);
+    /**
+     * Binary form of encrypt(String, String).
+     * Output: [version(1) | suite(0 or 1) | kdfParams(3) | salt(16) | nonce(12) | ciphertext | tag(16)];
+     * the suite byte is only present for suites other than AES-GCM.
+     */
+    public static byte[] encryptBytes(byte[] plaintext, String password) throws Exception {
+        if (plaintext == null || password == null) {
+            throw new IllegalArgumentException("Plaintext and password must not be null");
+        }
+
+        byte[] salt = new byte[SALT_LENGTH];
+        random().nextBytes(salt);
 
-        SecretKey key = new SecretKeySpec(keyBytes, "AES");
+        // Derive key using Argon2id, with this device's calibrated cost
+        KdfParams params = kdfParams;
+        byte[] keyBytes = deriveKey(password, salt, params);
 
         // Generate nonce
         byte[] nonce = new byte[GCM_IV_LENGTH];
-        secureRandom.nextBytes(nonce);
+        random().nextBytes(nonce);
+
+        byte[] compressed = compress(plaintext);
+        byte[] body = compressed != null ? compressed : plaintext;
+        CipherSuite suite = cipherSuite;
+        byte version = versionByte(CURRENT_VERSION, compressed != null, suite);
+
+        Cipher cipher;
+        try {
+            cipher = initCipher(Cipher.ENCRYPT_MODE, suite, keyBytes, nonce, 0);
+        } finally {
+            Arrays.fill(keyBytes, (byte) 0);
+        }
+        authenticateFlags(cipher, version, suite);
 
-        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-        GCMParameterSpec spec = new GCMParameterSpec(GCM_TAG_LENGTH, nonce);
-        cipher.init(Cipher.ENCRYPT_MODE, key, spec);
+        // Assemble final byte array
+        // Structure: [Version(1) | Suite(0 or 1) | KdfParams(3) | Salt(16) | Nonce(12) | CiphertextAndTag(N)]
+        // Note: both AEADs append the tag to the end of the ciphertext
+        int headerLength = prefixLength(version) + KdfParams.ENCODED_LENGTH + SALT_LENGTH + GCM_IV_LENGTH;
+        byte[] result = new byte[headerLength + cipher.getOutputSize(body.length)];
 
-        byte[] ciphertextAndTag = cipher.doFinal(plaintext.getBytes(StandardCharsets.UTF_8));
+        int pos = writePrefix(result, version, suite);
+
+        params.writeTo(result, pos);
+        pos += KdfParams.ENCODED_LENGTH;
 
-        // Assemble final byte array
-        // Structure: [Version(1) | Salt(16) | Nonce(12) | CiphertextAndTag(N)]
-        // Note: Java's AES/GCM/NoPadding automatically appends the tag to the end of ciphertext
-        byte[] result = new byte[1 + SALT_LENGTH + GCM_IV_LENGTH + ciphertextAndTag.length];
-        
-        int pos = 0;
-        result[pos++] = CURRENT_VERSION;
-        
         System.arraycopy(salt, 0, result, pos, SALT_LENGTH);
         pos += SALT_LENGTH;
-        
+
         System.arraycopy(nonce, 0, result, pos, GCM_IV_LENGTH);
         pos += GCM_IV_LENGTH;
-        
-        System.arraycopy(ciphertextAndTag, 0, result, pos, ciphertextAndTag.length);
 
-        return Base64.encodeToString(result, Base64.DEFAULT);
+        // Ciphertext is written straight after the header, no intermediate copy
+        long sealStart = Metrics.start();
+        cipher.doFinal(body, 0, body.length, result, pos);
+        Metrics.record(Metrics.Stage.CIPHER, sealStart);
+
+        return result;
     }
 
     /**
-     * Decrypts a Base64 string produced by encrypt().
+     * Binary form of decrypt(String, String). Handles versions 2 to 5; the Argon2 cost is read
+     * from the header (versions 4 and 5) or is the legacy fixed setting (versions 2 and 3), and the
+     * cipher from the suite byte when there is one.
      */
-    public static String decrypt(String encryptedBase64, String password) throws Exception {
-        if (encryptedBase64 == null || password == null) {
+    public static byte[] decryptBytes(byte[] data, String password) throws Exception {
+        if (data == null || password == null) {
             throw new IllegalArgumentException("Input and password must not be null");
         }
 
-        byte[] data = Base64.decode(encryptedBase64, Base64.DEFAULT);
-
         if (data.length < 1 + SALT_LENGTH + GCM_IV_LENGTH + 16) {
             throw new IllegalArgumentException("Invalid encrypted data length");
         }
 
         int pos = 0;
-        byte version = data[pos++];
-        
-        // Basic version check - handling legacy could be added here if needed
-        if (version != CURRENT_VERSION) {
-            // For now, fail on version mismatch to enforce new security
+        byte versionByte = data[pos++];
+        int version = versionByte & VERSION_MASK;
+        CipherSuite suite = suiteOf(versionByte, data[pos]);
+        pos = prefixLength(versionByte);
+
+        // Session payloads carry their room salt, so the password alone is enough to open them (slow path)
+        if (version == LEGACY_SESSION_VERSION || version == SESSION_VERSION) {
+            int saltOffset = sessionHeaderOffset(versionByte);
+            if (data.length < saltOffset + 2 * SALT_LENGTH + GCM_IV_LENGTH + 16) {
+                throw new IllegalArgumentException("Invalid encrypted data length");
+            }
+            KdfParams params = version == SESSION_VERSION ? KdfParams.readFrom(data, pos) : KdfParams.LEGACY;
+            byte[] roomSalt = Arrays.copyOfRange(data, saltOffset, saltOffset + SALT_LENGTH);
+            byte[] roomKey = deriveKey(password, roomSalt, params);
+            try {
+                return decryptSession(data, roomKey);
+            } finally {
+                Arrays.fill(roomKey, (byte) 0);
+            }
+        }
+
+        KdfParams params;
+        if (version == CURRENT_VERSION) {
+            // Bounds-checked before any memory is allocated for Argon2
+            params = KdfParams.readFrom(data, pos);
+            pos += KdfParams.ENCODED_LENGTH;
+        } else if (version == LEGACY_VERSION) {
+            params = KdfParams.LEGACY;
+        } else {
             throw new IllegalArgumentException("Unsupported version: " + version);
         }
+        if (data.length < pos + SALT_LENGTH + GCM_IV_LENGTH + 16) {
+            throw new IllegalArgumentException("Invalid encrypted data length");
+        }
 
         byte[] salt = new byte[SALT_LENGTH];
         System.arraycopy(data, pos, salt, 0, SALT_LENGTH);
         pos += SALT_LENGTH;
 
-        byte[] nonce = new byte[GCM_IV_LENGTH];
-        System.arraycopy(data, pos, nonce, 0, GCM_IV_LENGTH);
+        // The nonce is used where it lies
+        int noncePos = pos;
         pos += GCM_IV_LENGTH;
 
+        byte[] keyBytes = deriveKey(password, salt, params);
+        Cipher cipher;
+        try {
+            cipher = initCipher(Cipher.DECRYPT_MODE, suite, keyBytes, data, noncePos);
+        } finally {
+            Arrays.fill(keyBytes, (byte) 0);
+        }
+        authenticateFlags(cipher, versionByte, suite);
+
         // The rest is Ciphertext + Tag
-        byte[] ciphertextAndTag = new byte[data.length - pos];
-        System.arraycopy(data, pos, ciphertextAndTag, 0, ciphertextAndTag.length);
+        return finishPlaintext(versionByte, open(cipher, data, pos));
+    }
 
-        byte[] keyBytes = deriveKey(password, salt);
-        SecretKey key = new SecretKeySpec(keyBytes, "AES");
+    /**
+     * Generates a fresh room-level salt. Stored once on the room document and shared by all members.
+     */
+    public static byte[] newRoomSalt() {
+        byte[] salt = new byte[SALT_LENGTH];
+        random().nextBytes(salt);
+        return salt;
+    }
 
-        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-        GCMParameterSpec spec = new GCMParameterSpec(GCM_TAG_LENGTH, nonce);
-        cipher.init(Cipher.DECRYPT_MODE, key, spec);
+    /**
+     * Runs Argon2id once for a room. The returned key is reused for every message sent or read
+     * while the room is open, so only the cheap HKDF step is paid per message.
+     */
+    public static SessionKey deriveSessionKey(String password, byte[] roomSalt) {
+        return deriveSessionKey(password, roomSalt, KdfParams.LEGACY);
+    }
 
-        byte[] plaintextBytes = cipher.doFinal(ciphertextAndTag);
+    /**
+     * Same as deriveSessionKey(String, byte[]) with the room's own Argon2 cost, which is chosen by
+     * the member who created the room and stored next to its salt.
+     */
+    public static SessionKey deriveSessionKey(String password, byte[] roomSalt, KdfParams params) {
+        if (password == null || roomSalt == null || params == null) {
+            throw new IllegalArgumentException("Password, room salt and parameters must not be null");
+        }
+        if (roomSalt.length != SALT_LENGTH) {
+            throw new IllegalArgumentException("Invalid room salt length");
+        }
+        return new SessionKey(roomSalt.clone(), params, deriveKey(password, roomSalt, params));
+    }
+
+    /** Argon2id settings this device uses for new passwords and rooms. */
+    public static KdfParams getKdfParams() {
+        return kdfParams;
+    }
+
+    /**
+     * Installs the calibrated Argon2id settings, capped at the portable memory ceiling so every
+     * device can read what this one writes. Payloads already written keep their own.
+     */
+    public static void setKdfParams(KdfParams params) {
+        if (params == null) {
+            throw new IllegalArgumentException("Parameters must not be null");
+        }
+        kdfParams = params.portable();
+    }
+
+    /** The suite new payloads are sealed with. */
+    public static CipherSuite getCipherSuite() {
+        return cipherSuite;
+    }
 
+    /**
+     * Selects the AEAD for new payloads. Anything other than AES-GCM is unreadable by clients older
+     * than the suite byte, so only switch when the device clearly benefits.
+     */
+    public static void setCipherSuite(CipherSuite suite) {
+        if (suite == null) {
+            throw new IllegalArgumentException("Cipher suite must not be null");
+        }
+        cipherSuite = suite;
+    }
+
+    /**
+     * Encrypts plaintext under a room session key.
+     * Output: Base64 string (no line wrapping) of [version(1) | kdfParams(3) | roomSalt(16) | messageSalt(16) | nonce(12) | ciphertext | tag(16)]
+     */
+    public static String encrypt(String plaintext, SessionKey sessionKey) throws Exception {
+        if (plaintext == null || sessionKey == null) {
+            throw new IllegalArgumentException("Plaintext and session key must not be null");
+        }
+        return encodeBase64(encryptBytes(plaintext.getBytes(StandardCharsets.UTF_8), sessionKey));
+    }
+
+    /**
+     * Decrypts a chat payload. Session payloads sealed under this room's salt and parameters use the
+     * session key directly; anything else (a password payload, or one from a room with a different
+     * salt) falls back to the password path.
+     */
+    public static String decrypt(String encryptedBase64, SessionKey sessionKey, String password) throws Exception {
+        if (encryptedBase64 == null) {
+            throw new IllegalArgumentException("Input must not be null");
+        }
+        byte[] plaintextBytes = decryptBytes(decodeBase64(encryptedBase64), sessionKey, password);
         return new String(plaintextBytes, StandardCharsets.UTF_8);
     }
 
-    // Helper using Bouncy Castle's Argon2
-    private static byte[] deriveKey(String password, byte[] salt) {
-        Argon2Parameters.Builder builder = new Argon2Parameters.Builder(Argon2Parameters.ARGON2_id)
-                .withVersion(Argon2Parameters.ARGON2_VERSION_13)
-                .withIterations(ARGON2_ITERATIONS)
-                .withMemoryAsKB(ARGON2_MEMORY)
-                .withParallelism(ARGON2_PARALLELISM)
-                .withSalt(salt);
+    /**
+     * Binary form of encrypt(String, SessionKey), stored as a Firestore Blob by the chat.
+     * Output: [version(1) | suite(0 or 1) | kdfParams(3) | roomSalt(16) | messageSalt(16) | nonce(12) | ciphertext | tag(16)]
+     */
+    public static byte[] encryptBytes(byte[] plaintext, SessionKey sessionKey) throws Exception {
+        if (plaintext == null || sessionKey == null) {
+            throw new IllegalArgumentException("Plaintext and session key must not be null");
+        }
+
+        byte[] messageSalt = new byte[SALT_LENGTH];
+        random().nextBytes(messageSalt);
+
+        byte[] nonce = new byte[GCM_IV_LENGTH];
+        random().nextBytes(nonce);
+
+        byte[] compressed = compress(plaintext);
+        byte[] body = compressed != null ? compressed : plaintext;
+        CipherSuite suite = cipherSuite;
+        byte version = versionByte(SESSION_VERSION, compressed != null, suite);
+
+        Cipher cipher;
+        byte[] subkey = sessionKey.subkey(messageSalt);
+        try {
+            cipher = initCipher(Cipher.ENCRYPT_MODE, suite, subkey, nonce, 0);
+        } finally {
+            Arrays.fill(subkey, (byte) 0);
+        }
+        authenticateFlags(cipher, version, suite);
+
+        byte[] result = new byte[prefixLength(version) - 1 + SESSION_HEADER_LENGTH + cipher.getOutputSize(body.length)];
+
+        int pos = writePrefix(result, version, suite);
+
+        sessionKey.params.writeTo(result, pos);
+        pos += KdfParams.ENCODED_LENGTH;
+
+        System.arraycopy(sessionKey.roomSalt, 0, result, pos, SALT_LENGTH);
+        pos += SALT_LENGTH;
+
+        System.arraycopy(messageSalt, 0, result, pos, SALT_LENGTH);
+        pos += SALT_LENGTH;
+
+        System.arraycopy(nonce, 0, result, pos, GCM_IV_LENGTH);
+        pos += GCM_IV_LENGTH;
 
-        Argon2BytesGenerator generator = new Argon2BytesGenerator();
-        generator.init(builder.build());
+        long sealStart = Metrics.start();
+        cipher.doFinal(body, 0, body.length, result, pos);
+        Metrics.record(Metrics.Stage.CIPHER, sealStart);
 
-        byte[] result = new byte[KEY_LENGTH];
-        generator.generateBytes(password.toCharArray(), result, 0, result.length);
         return result;
     }
 
+    /**
+     * Binary form of decrypt(String, SessionKey, String).
+     */
+    public static byte[] decryptBytes(byte[] data, SessionKey sessionKey, String password) throws Exception {
+        if (data == null) {
+            throw new IllegalArgumentException("Input must not be null");
+        }
+
+        if (sessionKey != null && sessionKey.matches(data)) {
+            return decryptSession(data, sessionKey.key);
+        }
+        return decryptBytes(data, password);
+    }
+
+    /** Most bytes encrypt(ByteBuffer, ByteBuffer, SessionKey) writes for a plaintext of this length. */
+    public static int sessionPayloadLength(int plaintextLength) {
+        return 1 + SESSION_HEADER_LENGTH + plaintextLength + TAG_BYTES; // Suite byte included
+    }
+
+    /**
+     * Seals plaintext.remaining() bytes under the session key straight into out, in the same layout
+     * as encryptBytes(byte[], SessionKey) but never compressed. Both buffers advance by what was read
+     * or written. Nothing the size of the message is allocated, so callers that reuse their buffers
+     * (direct ones included) pay only a few small, fixed-size JCA objects per message.
+     * Returns the number of bytes written, one less than sessionPayloadLength() for AES-GCM.
+     */
+    public static int encrypt(ByteBuffer plaintext, ByteBuffer out, SessionKey sessionKey) throws GeneralSecurityException {
+        if (plaintext == null || out == null || sessionKey == null) {
+            throw new IllegalArgumentException("Buffers and session key must not be null");
+        }
+        CipherSuite suite = cipherSuite;
+        byte version = versionByte(SESSION_VERSION, false, suite);
+        int length = prefixLength(version) - 1 + SESSION_HEADER_LENGTH + plaintext.remaining() + TAG_BYTES;
+        if (out.remaining() < length) {
+            throw new ShortBufferException("Need " + length + " bytes of output");
+        }
+
+        Scratch scratch = scratches.get();
+        SecureRandom random = random();
+        random.nextBytes(scratch.messageSalt);
+        random.nextBytes(scratch.nonce);
+
+        Cipher cipher;
+        deriveSubkey(sessionKey.key, scratch.messageSalt, scratch.subkey);
+        try {
+            cipher = initCipher(Cipher.ENCRYPT_MODE, suite, scratch.subkey, scratch.nonce, 0);
+        } finally {
+            Arrays.fill(scratch.subkey, (byte) 0);
+        }
+        authenticateFlags(cipher, version, suite);
+
+        out.put(version);
+        if (suite != CipherSuite.AES_GCM) {
+            out.put((byte) suite.id);
+        }
+        out.put(sessionKey.encodedParams)
+                .put(sessionKey.roomSalt)
+                .put(scratch.messageSalt)
+                .put(scratch.nonce);
+        long sealStart = Metrics.start();
+        cipher.doFinal(plaintext, out);
+        Metrics.record(Metrics.Stage.CIPHER, sealStart);
+        return length;
+    }
+
+    /**
+     * Opens payload.remaining() bytes sealed under this session key into out, the buffer form of
+     * decryptBytes(byte[], SessionKey, String). out may share memory with payload (a duplicate() of
+     * it, for instance) to decrypt in place. Compressed payloads are inflated through a temporary
+     * array and need an out with room for the inflated text. Payloads from other rooms or passwords
+     * are rejected rather than sent down the Argon2 path. Returns the number of plaintext bytes
+     * written; buffer positions are unspecified if it throws.
+     */
+    public static int decrypt(ByteBuffer payload, ByteBuffer out, SessionKey sessionKey)
+            throws GeneralSecurityException, DataFormatException {
+        if (payload == null || out == null || sessionKey == null) {
+            throw new IllegalArgumentException("Buffers and session key must not be null");
+        }
+        if (!sessionKey.matches(payload)) {
+            throw new IllegalArgumentException("Payload was not sealed under this session key");
+        }
+        int start = payload.position();
+        byte versionByte = payload.get(start);
+        int headerLength = sessionHeaderOffset(versionByte) + 2 * SALT_LENGTH + GCM_IV_LENGTH;
+        if (payload.remaining() < headerLength + TAG_BYTES) {
+            throw new IllegalArgumentException("Invalid encrypted data length");
+        }
+        CipherSuite suite = suiteOf(versionByte, payload.get(start + 1));
+
+        Scratch scratch = scratches.get();
+        payload.position(payload.position() + headerLength - SALT_LENGTH - GCM_IV_LENGTH);
+        payload.get(scratch.messageSalt).get(scratch.nonce);
+
+        Cipher cipher;
+        deriveSubkey(sessionKey.key, scratch.messageSalt, scratch.subkey);
+        try {
+            cipher = initCipher(Cipher.DECRYPT_MODE, suite, scratch.subkey, scratch.nonce, 0);
+        } finally {
+            Arrays.fill(scratch.subkey, (byte) 0);
+        }
+        authenticateFlags(cipher, versionByte, suite);
+
+        long openStart = Metrics.start();
+        if ((versionByte & FLAG_DEFLATE) != 0) {
+            byte[] body = new byte[payload.remaining() - TAG_BYTES];
+            cipher.doFinal(payload, ByteBuffer.wrap(body));
+            Metrics.record(Metrics.Stage.CIPHER, openStart);
+            byte[] plaintext = decompress(body);
+            if (out.remaining() < plaintext.length) {
+                throw new ShortBufferException("Need " + plaintext.length + " bytes of output");
+            }
+            out.put(plaintext);
+            return plaintext.length;
+        }
+        if (out.remaining() < payload.remaining() - TAG_BYTES) {
+            throw new ShortBufferException("Need " + (payload.remaining() - TAG_BYTES) + " bytes of output");
+        }
+        int written = cipher.doFinal(payload, out);
+        Metrics.record(Metrics.Stage.CIPHER, openStart);
+        return written;
+    }
+
+    // Ciphertext and tag from pos to the end of data
+    private static byte[] open(Cipher cipher, byte[] data, int pos) throws GeneralSecurityException {
+        long start = Metrics.start();
+        byte[] body = cipher.doFinal(data, pos, data.length - pos);
+        Metrics.record(Metrics.Stage.CIPHER, start);
+        return body;
+    }
+
+    private static byte[] decryptSession(byte[] data, byte[] roomKey) throws Exception {
+        int pos = sessionHeaderOffset(data[0]);
+        if (data.length < pos + 2 * SALT_LENGTH + GCM_IV_LENGTH + 16) {
+            throw new IllegalArgumentException("Invalid encrypted data length");
+        }
+        CipherSuite suite = suiteOf(data[0], data[1]);
+
+        pos += SALT_LENGTH; // Skip room salt
+
+        byte[] messageSalt = new byte[SALT_LENGTH];
+        System.arraycopy(data, pos, messageSalt, 0, SALT_LENGTH);
+        pos += SALT_LENGTH;
+
+        int noncePos = pos;
+        pos += GCM_IV_LENGTH;
+
+        Cipher cipher;
+        byte[] subkey = deriveSubkey(roomKey, messageSalt);
+        try {
+            cipher = initCipher(Cipher.DECRYPT_MODE, suite, subkey, data, noncePos);
+        } finally {
+            Arrays.fill(subkey, (byte) 0);
+        }
+        authenticateFlags(cipher, data[0], suite);
+
+        return finishPlaintext(data[0], open(cipher, data, pos));
+    }
+
+    // Offset of the room salt: version 5 puts the Argon2 parameters in front of it
+    private static int sessionHeaderOffset(byte versionByte) {
+        int prefix = prefixLength(versionByte);
+        return (versionByte & VERSION_MASK) == SESSION_VERSION ? prefix + KdfParams.ENCODED_LENGTH : prefix;
+    }
+
+    private static byte versionByte(int version, boolean compressed, CipherSuite suite) {
+        int flags = (compressed ? FLAG_DEFLATE : 0) | (suite != CipherSuite.AES_GCM ? FLAG_SUITE : 0);
+        return (byte) (version | flags);
+    }
+
+    // Version byte, plus the suite byte when there is one
+    private static int prefixLength(byte versionByte) {
+        return (versionByte & FLAG_SUITE) != 0 ? 2 : 1;
+    }
+
+    private static int writePrefix(byte[] out, byte versionByte, CipherSuite suite) {
+        out[0] = versionByte;
+        if ((versionByte & FLAG_SUITE) == 0) return 1;
+        out[1] = (byte) suite.id;
+        return 2;
+    }
+
+    // suiteByte is only read when the flag says it is one; callers have checked the length
+    private static CipherSuite suiteOf(byte versionByte, byte suiteByte) {
+        return (versionByte & FLAG_SUITE) != 0 ? CipherSuite.fromId(suiteByte & 0xFF) : CipherSuite.AES_GCM;
+    }
+
+    // This thread's cipher for the suite, initialised for one message
+    private static Cipher initCipher(int mode, CipherSuite suite, byte[] key, byte[] nonce, int nonceOffset)
+            throws GeneralSecurityException {
+        Cipher[] perThread = ciphers.get();
+        Cipher cipher = perThread[suite.ordinal()];
+        if (cipher == null) {
+            cipher = suite.newCipher();
+            perThread[suite.ordinal()] = cipher;
+        }
+        SecretKeySpec keySpec = new SecretKeySpec(key, suite.keyAlgorithm);
+        AlgorithmParameterSpec spec = suite.parameterSpec(nonce, nonceOffset, GCM_IV_LENGTH);
+        try {
+            cipher.init(mode, keySpec, spec);
+        } catch (InvalidKeyException e) {
+            // ChaCha20 ciphers refuse the key and nonce they were last initialised with, even to
+            // decrypt, which is exactly what opening a message this thread just sealed does
+            if (suite == CipherSuite.AES_GCM) throw e;
+            cipher = suite.newCipher();
+            perThread[suite.ordinal()] = cipher;
+            cipher.init(mode, keySpec, spec);
+        }
+        return cipher;
+    }
+
+    /**
+     * Turns Deflate compression of new payloads on or off. Compression also makes ciphertext length
+     * depend on content, so callers mixing secrets with attacker-chosen text may want it off.
+     */
+    public static void setCompressionEnabled(boolean enabled) {
+        compressionEnabled = enabled;
+    }
+
+    // Flagged payloads bind the version byte (and suite byte) as AAD, so a flipped flag fails
+    // authentication. Unflagged payloads skip it to stay byte-compatible with older clients.
+    private static void authenticateFlags(Cipher cipher, byte versionByte, CipherSuite suite) {
+        if ((versionByte & FLAG_SUITE) != 0) {
+            cipher.updateAAD(new byte[]{versionByte, (byte) suite.id});
+        } else if ((versionByte & ~VERSION_MASK) != 0) {
+            cipher.updateAAD(new byte[]{versionByte});
+        }
+    }
+
+    // Unwrapped on the way out; wrapped (legacy) input is accepted on the way in
+    static String encodeBase64(byte[] data) {
+        long start = Metrics.start();
+        String encoded = Base64.encodeToString(data, Base64.NO_WRAP);
+        Metrics.record(Metrics.Stage.ENCODING, start);
+        return encoded;
+    }
+
+    static byte[] decodeBase64(String encoded) {
+        long start = Metrics.start();
+        byte[] decoded = Base64.decode(encoded, Base64.DEFAULT);
+        Metrics.record(Metrics.Stage.ENCODING, start);
+        return decoded;
+    }
+
+    private static byte[] finishPlaintext(byte versionByte, byte[] body) throws DataFormatException {
+        return (versionByte & FLAG_DEFLATE) != 0 ? decompress(body) : body;
+    }
+
+    // Fast raw Deflate; returns null when compression is off or would not make the payload smaller
+    static byte[] compress(byte[] plaintext) {
+        if (!compressionEnabled || plaintext.length < COMPRESSION_THRESHOLD || looksIncompressible(plaintext)) {
+            return null;
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(plaintext);
+            deflater.finish();
+            // Anything at or above the input size is useless, so stop there
+            byte[] buffer = new byte[plaintext.length];
+            int length = 0;
+            while (!deflater.finished() && length < buffer.length) {
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            if (!deflater.finished() || length >= plaintext.length) {
+                return null;
+            }
+            return Arrays.copyOf(buffer, length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    // Ciphertext, media and archives use nearly every byte value even in a short prefix; deflating them
+    // in full costs many times the cipher itself only to be thrown away
+    private static boolean looksIncompressible(byte[] plaintext) {
+        int sample = Math.min(plaintext.length, COMPRESSION_SAMPLE);
+        boolean[] seen = new boolean[256];
+        int distinct = 0;
+        for (int i = 0; i < sample; i++) {
+            int b = plaintext[i] & 0xFF;
+            if (!seen[b]) {
+                seen[b] = true;
+                if (++distinct > INCOMPRESSIBLE_DISTINCT_BYTES) return true;
+            }
+        }
+        return false;
+    }
+
+    static byte[] decompress(byte[] compressed) throws DataFormatException {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed);
+            byte[] buffer = new byte[Math.max(256, compressed.length * 4)];
+            int length = 0;
+            while (!inflater.finished()) {
+                if (length == buffer.length) {
+                    if (buffer.length >= MAX_INFLATED_LENGTH) {
+                        throw new DataFormatException("Decompressed payload too large");
+                    }
+                    buffer = Arrays.copyOf(buffer, Math.min(MAX_INFLATED_LENGTH, buffer.length * 2));
+                }
+                int n = inflater.inflate(buffer, length, buffer.length - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Truncated compressed payload");
+                }
+                length += n;
+            }
+            return Arrays.copyOf(buffer, length);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    // HKDF-SHA256 expands the room key into a per-message AES key
+    private static byte[] deriveSubkey(byte[] roomKey, byte[] messageSalt) {
+        byte[] subkey = new byte[KEY_LENGTH];
+        deriveSubkey(roomKey, messageSalt, subkey);
+        return subkey;
+    }
+
+    private static void deriveSubkey(byte[] roomKey, byte[] messageSalt, byte[] subkey) {
+        HKDFBytesGenerator hkdf = scratches.get().hkdf;
+        hkdf.init(new HKDFParameters(roomKey, messageSalt, SESSION_KEY_INFO));
+        hkdf.generateBytes(subkey, 0, KEY_LENGTH);
+    }
+
+    private static SecureRandom random() {
+        return randoms.get();
+    }
+
+    /**
+     * Does the one-off work of the first message on the calling thread: class loading, provider
+     * lookups, SecureRandom seeding and HKDF set-up, ending in one throwaway seal with the current
+     * suite. JCA caches provider services process-wide, so other threads only create their own
+     * instances afterwards. Argon2 itself is not run; its arenas are too large to warm speculatively.
+     */
+    static void warmUp() throws GeneralSecurityException {
+        Argon2Engine.getInstance();
+        DerivationGate.getInstance();
+        Scratch scratch = scratches.get();
+        byte[] roomKey = new byte[KEY_LENGTH];
+        SecureRandom random = random();
+        random.nextBytes(roomKey);
+        random.nextBytes(scratch.messageSalt);
+        random.nextBytes(scratch.nonce);
+        deriveSubkey(roomKey, scratch.messageSalt, scratch.subkey);
+        CipherSuite suite = cipherSuite;
+        Cipher cipher;
+        try {
+            cipher = initCipher(Cipher.ENCRYPT_MODE, suite, scratch.subkey, scratch.nonce, 0);
+        } finally {
+            Arrays.fill(scratch.subkey, (byte) 0);
+        }
+        cipher.doFinal(new byte[SALT_LENGTH]);
+    }
+
+    // Legacy fixed cost, used by version 2/3 payloads and the file format
+    static byte[] deriveKey(String password, byte[] salt) {
+        return deriveKey(password, salt, KdfParams.LEGACY);
+    }
+
+    // Argon2id through the pooled engine; same output as Bouncy Castle's Argon2BytesGenerator.
+    // The gate queues the call while other derivations already hold the memory budget.
+    static byte[] deriveKey(String password, byte[] salt, KdfParams params) {
+        long start = Metrics.start();
+        DerivationGate gate = DerivationGate.getInstance();
+        long reserved;
+        try {
+            reserved = gate.acquire(params.memoryKb());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for key derivation memory", e);
+        }
+        byte[] passwordBytes = PasswordConverter.UTF8.convert(password.toCharArray());
+        try {
+            return Argon2Engine.getInstance().derive(passwordBytes, salt, params, KEY_LENGTH);
+        } finally {
+            Arrays.fill(passwordBytes, (byte) 0);
+            gate.release(reserved);
+            Metrics.record(Metrics.Stage.DERIVE_KEY, start);
+        }
+    }
+
     // Generates a hash of the text (Keeping existing function for hashing feature)
     public static String hash(String text, String algorithm) throws NoSuchAlgorithmException {
+        return hash(text.getBytes(StandardCharsets.UTF_8), algorithm);
+    }
+
+    public static String hash(byte[] data, String algorithm) throws NoSuchAlgorithmException {
+        long start = Metrics.start();
         MessageDigest digest = MessageDigest.getInstance(algorithm);
-        byte[] encodedhash = digest.digest(text.getBytes(StandardCharsets.UTF_8));
+        byte[] encodedhash = digest.digest(data);
+        Metrics.record(Metrics.Stage.HASH, start);
         return bytesToHex(encodedhash);
     }
 
-    private static String bytesToHex(byte[] hash) {
-        StringBuilder hexString = new StringBuilder(2 * hash.length);
-        for (byte b : hash) {
-            String hex = Integer.toHexString(0xff & b);
-            if (hex.length() == 1) {
-                hexString.append('0');
+    static String bytesToHex(byte[] hash) {
+        char[] hex = new char[2 * hash.length];
+        for (int i = 0; i < hash.length; i++) {
+            int b = hash[i] & 0xff;
+            hex[2 * i] = HEX_DIGITS[b >>> 4];
+            hex[2 * i + 1] = HEX_DIGITS[b & 0x0f];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Argon2id output for one room, held for the lifetime of the chat screen.
+     */
+    public static final class SessionKey {
+        private final byte[] roomSalt;
+        private final KdfParams params;
+        private final byte[] encodedParams;
+        private final byte[] key;
+
+        private SessionKey(byte[] roomSalt, KdfParams params, byte[] key) {
+            this.roomSalt = roomSalt;
+            this.params = params;
+            this.encodedParams = params.encode();
+            this.key = key;
+        }
+
+        private boolean matches(byte[] data) {
+            return matches(ByteBuffer.wrap(data));
+        }
+
+        // True when the payload from its position on was sealed under this room's salt and Argon2 parameters
+        private boolean matches(ByteBuffer data) {
+            int start = data.position();
+            int length = data.remaining();
+            if (length == 0) return false;
+            int version = data.get(start) & VERSION_MASK;
+            if (version == LEGACY_SESSION_VERSION) {
+                int saltOffset = sessionHeaderOffset(data.get(start));
+                return params.equals(KdfParams.LEGACY) && length >= saltOffset + SALT_LENGTH
+                        && matchesRoomSalt(data, start + saltOffset);
+            }
+            if (version == SESSION_VERSION) {
+                byte versionByte = data.get(start);
+                int saltOffset = sessionHeaderOffset(versionByte);
+                if (length < saltOffset + SALT_LENGTH) return false;
+                int paramsOffset = start + prefixLength(versionByte);
+                for (int i = 0; i < KdfParams.ENCODED_LENGTH; i++) {
+                    if (data.get(paramsOffset + i) != encodedParams[i]) return false;
+                }
+                return matchesRoomSalt(data, start + saltOffset);
+            }
+            return false;
+        }
+
+        private byte[] subkey(byte[] messageSalt) {
+            return deriveSubkey(key, messageSalt);
+        }
+
+        private boolean matchesRoomSalt(ByteBuffer data, int offset) {
+            int diff = 0;
+            for (int i = 0; i < SALT_LENGTH; i++) {
+                diff |= roomSalt[i] ^ data.get(offset + i);
             }
-            hexString.append(hex);
+            return diff == 0;
         }
-        return hexString.toString();
+
+        /** Wipes the derived key. The instance must not be used afterwards. */
+        public void destroy() {
+            Arrays.fill(key, (byte) 0);
+        }
+    }
+
+    // Per-thread state for the session-key hot path
+    private static final class Scratch {
+        final byte[] messageSalt = new byte[SALT_LENGTH];
+        final byte[] nonce = new byte[GCM_IV_LENGTH];
+        final byte[] subkey = new byte[KEY_LENGTH];
+        final HKDFBytesGenerator hkdf = new HKDFBytesGenerator(new SHA256Digest());
     }
 }
@@ -0,0 +1,132 @@
+package com.encrypto.app;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+
+import androidx.annotation.Nullable;
+import androidx.lifecycle.ViewModel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+
+/**
+ * Owns the crypto jobs of {@link MainActivity}, so a rotation neither cancels a running file
+ * operation nor loses its result. Jobs are cancelled only when the screen is finished for good.
+ * Main thread only.
+ */
+public class CryptoViewModel extends ViewModel {
+
+    public interface Listener {
+        void onBusyChanged(boolean busy);
+
+        void onResult(String result);
+
+        void onError(Exception e);
+
+        /** A file picked in File mode was checked; encrypted files are decrypted, the rest encrypted. */
+        void onSourceProbed(Uri source, String displayName, boolean encrypted);
+    }
+
+    private interface Event {
+        void deliver(Listener listener);
+    }
+
+    private final CryptoExecutor cryptoExecutor = CryptoExecutor.getInstance();
+
+    @Nullable private Listener listener;
+    @Nullable private Event undelivered; // Finished while no screen was attached
+
+    /** Attaches the screen, reporting the busy state and any result that arrived during a rotation. */
+    public void attach(Listener listener) {
+        this.listener = listener;
+        cryptoExecutor.setBusyListener(this, listener::onBusyChanged);
+        listener.onBusyChanged(cryptoExecutor.isBusy(this));
+        if (undelivered != null) {
+            Event event = undelivered;
+            undelivered = null;
+            event.deliver(listener);
+        }
+    }
+
+    public void detach(Listener listener) {
+        if (this.listener != listener) return;
+        this.listener = null;
+        cryptoExecutor.setBusyListener(this, null);
+    }
+
+    /**
+     * Runs work in place of any pending job. The work must not reference the Activity, which may be
+     * gone by the time it finishes.
+     */
+    public void run(Callable<String> work) {
+        cancel();
+        cryptoExecutor.submit(this, work, new CryptoExecutor.Callback<String>() {
+            @Override
+            public void onSuccess(String result) {
+                post(listener -> listener.onResult(result));
+            }
+
+            @Override
+            public void onError(Exception e) {
+                post(listener -> listener.onError(e));
+            }
+        });
+    }
+
+    /** Reads the name and magic bytes of a picked file off the main thread. */
+    public void probeSource(ContentResolver resolver, Uri source) {
+        cancel();
+        cryptoExecutor.submit(this, () -> {
+            boolean encrypted;
+            try (InputStream in = resolver.openInputStream(source)) {
+                if (in == null) {
+                    throw new IOException("Unable to read file");
+                }
+                encrypted = StreamCrypto.isEncryptedStream(in);
+            }
+            return new Probe(MainActivity.queryDisplayName(resolver, source), encrypted);
+        }, new CryptoExecutor.Callback<Probe>() {
+            @Override
+            public void onSuccess(Probe probe) {
+                post(listener -> listener.onSourceProbed(source, probe.displayName, probe.encrypted));
+            }
+
+            @Override
+            public void onError(Exception e) {
+                post(listener -> listener.onError(e));
+            }
+        });
+    }
+
+    /** Drops the pending job and any undelivered result, e.g. on a mode switch. */
+    public void cancel() {
+        cryptoExecutor.cancelAll(this);
+        undelivered = null;
+    }
+
+    private void post(Event event) {
+        if (listener != null) {
+            event.deliver(listener);
+        } else {
+            undelivered = event;
+        }
+    }
+
+    private static final class Probe {
+        final String displayName;
+        final boolean encrypted;
+
+        Probe(String displayName, boolean encrypted) {
+            this.displayName = displayName;
+            this.encrypted = encrypted;
+        }
+    }
+
+    @Override
+    protected void onCleared() {
+        listener = null;
+        undelivered = null;
+        cryptoExecutor.release(this);
+    }
+}
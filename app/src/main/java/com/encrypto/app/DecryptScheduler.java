@@ -0,0 +1,176 @@
+package com.encrypto.app;
+
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.encrypto.app.models.ChatMessage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * Decrypts a whole room in the order the user will read it.
+ *
+ * Rows on screen go first, then a prefetch window below and above (the scroll direction first).
+ * Only a few jobs are handed to the {@link CryptoExecutor} at a time, and the rest stay here. So
+ * when the visible range moves, the new rows jump the line, and jobs for rows that left the window
+ * are cancelled. Local echoes of our own messages are skipped: their plaintext is known, and until
+ * they are sent there may be no ciphertext at all. Main thread only.
+ */
+public class DecryptScheduler {
+
+    public interface TaskFactory {
+        /** Called on the main thread; the returned work runs on a crypto thread. */
+        Callable<String> create(ChatMessage message);
+    }
+
+    public interface Listener {
+        void onDecrypted(ChatMessage message);
+
+        void onFailed(ChatMessage message, Exception e);
+    }
+
+    private static final int PREFETCH_ROWS = 20;  // Rows decrypted beyond each edge of the screen
+    private static final int MAX_IN_FLIGHT = 4;   // Enough to keep the executor busy, few enough to reorder
+
+    private final Object owner;
+    private final CryptoExecutor executor;
+    private final MessageList messages;
+    private final PlaintextCache cache;
+    private final TaskFactory taskFactory;
+    private final Listener listener;
+
+    private final Map<ChatMessage, CryptoExecutor.Job<String>> inFlight = new HashMap<>();
+    // Wanted but waiting for a free slot; rebuilt by every schedule()
+    private final Set<ChatMessage> queued = new HashSet<>();
+    private final Set<ChatMessage> failed = new HashSet<>();
+
+    private boolean enabled;
+    private int firstVisible = RecyclerView.NO_POSITION;
+    private int lastVisible = RecyclerView.NO_POSITION;
+    private boolean scrollingUp;
+
+    public DecryptScheduler(Object owner, CryptoExecutor executor, MessageList messages, PlaintextCache cache,
+                            TaskFactory taskFactory, Listener listener) {
+        this.owner = owner;
+        this.executor = executor;
+        this.messages = messages;
+        this.cache = cache;
+        this.taskFactory = taskFactory;
+        this.listener = listener;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** True while the message is queued or being decrypted, so its row can show progress. */
+    public boolean isPending(ChatMessage message) {
+        return enabled && (inFlight.containsKey(message) || queued.contains(message));
+    }
+
+    public void start() {
+        enabled = true;
+        failed.clear();
+        schedule();
+    }
+
+    /** Stops and cancels everything still queued or running. */
+    public void stop() {
+        enabled = false;
+        for (CryptoExecutor.Job<String> job : inFlight.values()) {
+            job.cancel();
+        }
+        inFlight.clear();
+        queued.clear();
+    }
+
+    /** Call whenever the visible adapter positions may have changed (scrolls, list updates). */
+    public void setVisibleRange(int first, int last) {
+        if (first != RecyclerView.NO_POSITION && firstVisible != RecyclerView.NO_POSITION && first != firstVisible) {
+            scrollingUp = first < firstVisible;
+        }
+        firstVisible = first;
+        lastVisible = last;
+        schedule();
+    }
+
+    private void schedule() {
+        if (!enabled || firstVisible == RecyclerView.NO_POSITION) return;
+
+        List<ChatMessage> wanted = wantedInOrder();
+
+        // Whatever is running for a row outside the window is no longer worth the CPU
+        Set<ChatMessage> wantedSet = new HashSet<>(wanted);
+        for (Iterator<Map.Entry<ChatMessage, CryptoExecutor.Job<String>>> it = inFlight.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<ChatMessage, CryptoExecutor.Job<String>> entry = it.next();
+            if (!wantedSet.contains(entry.getKey())) {
+                entry.getValue().cancel();
+                it.remove();
+            }
+        }
+
+        queued.clear();
+        for (ChatMessage message : wanted) {
+            if (inFlight.containsKey(message)) continue;
+            if (inFlight.size() < MAX_IN_FLIGHT) {
+                submit(message);
+            } else {
+                queued.add(message);
+            }
+        }
+    }
+
+    // Visible rows top to bottom, then prefetch rows by distance from the screen edges
+    private List<ChatMessage> wantedInOrder() {
+        int size = messages.size();
+        int first = Math.max(0, firstVisible);
+        int last = Math.min(size - 1, lastVisible);
+        List<ChatMessage> wanted = new ArrayList<>();
+        for (int i = first; i <= last; i++) {
+            addIfNeeded(wanted, i);
+        }
+        for (int d = 1; d <= PREFETCH_ROWS; d++) {
+            int ahead = scrollingUp ? first - d : last + d;
+            int behind = scrollingUp ? last + d : first - d;
+            if (ahead >= 0 && ahead < size) addIfNeeded(wanted, ahead);
+            if (behind >= 0 && behind < size) addIfNeeded(wanted, behind);
+        }
+        return wanted;
+    }
+
+    private void addIfNeeded(List<ChatMessage> wanted, int position) {
+        ChatMessage message = messages.get(position);
+        if (message.payload == null && message.encryptedContent == null) return;
+        if (!messages.isLocalEcho(message) && !failed.contains(message) && cache.get(message) == null) {
+            wanted.add(message);
+        }
+    }
+
+    private void submit(ChatMessage message) {
+        CryptoExecutor.Job<String> job = executor.submit(owner, taskFactory.create(message),
+                new CryptoExecutor.Callback<String>() {
+                    @Override
+                    public void onSuccess(String plaintext) {
+                        inFlight.remove(message);
+                        cache.put(message, plaintext);
+                        listener.onDecrypted(message);
+                        schedule();
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                        inFlight.remove(message);
+                        failed.add(message);
+                        listener.onFailed(message, e);
+                        schedule();
+                    }
+                });
+        inFlight.put(message, job);
+    }
+}
@@ -0,0 +1,148 @@
+package com.encrypto.app;
+
+import java.util.ArrayDeque;
+
+/**
+ * Admission control for Argon2 derivations, weighted by their working memory.
+ *
+ * Each derivation asks for its memory cost before it allocates anything. Requests are admitted in
+ * arrival order while the total stays within the budget; the rest wait. A request larger than the
+ * whole budget is clamped to it, so it still runs, just alone, unless it exceeds what the heap can
+ * hold at all: such a request is refused before anything is allocated. The budget starts at half the
+ * heap limit and can be lowered once the platform memory class is known.
+ */
+public final class DerivationGate {
+
+    private static DerivationGate instance;
+
+    private final ArrayDeque<Object> queue = new ArrayDeque<>();
+    private long budgetKb;
+    private long maxRequestKb;
+    private long inUseKb;
+
+    private long admitted;
+    private long waited;
+    private int peakQueueDepth;
+    private long totalWaitNanos;
+    private long maxWaitNanos;
+
+    public static synchronized DerivationGate getInstance() {
+        if (instance == null) {
+            instance = new DerivationGate(Runtime.getRuntime().maxMemory() / 2);
+        }
+        return instance;
+    }
+
+    public DerivationGate(long budgetBytes) {
+        setBudgetBytes(budgetBytes);
+        setHeapLimitBytes(Runtime.getRuntime().maxMemory());
+    }
+
+    /** Changes the budget; waiting requests are re-evaluated straight away. */
+    public synchronized void setBudgetBytes(long budgetBytes) {
+        if (budgetBytes < 1024) {
+            throw new IllegalArgumentException("Budget must be at least 1 KiB");
+        }
+        budgetKb = budgetBytes / 1024;
+        notifyAll();
+    }
+
+    /**
+     * Sets the heap the app may use (the smaller of the VM limit and the platform memory class).
+     * Requests above three quarters of it are refused, as the arena could not be allocated next to
+     * the rest of the app.
+     */
+    public synchronized void setHeapLimitBytes(long heapBytes) {
+        maxRequestKb = heapBytes / 4 * 3 / 1024;
+    }
+
+    /**
+     * Blocks until memoryKb fits in the budget. Returns the amount actually reserved, which must be
+     * passed to {@link #release(long)}. Throws IllegalArgumentException if this device cannot
+     * afford memoryKb at all, for example for a payload written with a cost meant for a larger heap.
+     */
+    public synchronized long acquire(long memoryKb) throws InterruptedException {
+        if (memoryKb > maxRequestKb) {
+            throw new IllegalArgumentException("Key derivation needs " + (memoryKb >> 10)
+                    + " MiB of memory, more than this device can provide (" + (maxRequestKb >> 10) + " MiB)");
+        }
+        if (queue.isEmpty() && inUseKb + Math.min(memoryKb, budgetKb) <= budgetKb) {
+            return admit(memoryKb, 0);
+        }
+
+        Object waiter = new Object();
+        queue.addLast(waiter);
+        peakQueueDepth = Math.max(peakQueueDepth, queue.size());
+        long start = System.nanoTime();
+        try {
+            // FIFO: a large request at the head is not overtaken by smaller ones behind it
+            while (queue.peekFirst() != waiter || inUseKb + Math.min(memoryKb, budgetKb) > budgetKb) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            queue.remove(waiter);
+            notifyAll();
+            throw e;
+        }
+        queue.pollFirst();
+        waited++;
+        long reserved = admit(memoryKb, System.nanoTime() - start);
+        notifyAll(); // The next waiter may fit too
+        return reserved;
+    }
+
+    public synchronized void release(long reservedKb) {
+        inUseKb -= reservedKb;
+        notifyAll();
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(queue.size(), peakQueueDepth, admitted, waited, totalWaitNanos, maxWaitNanos,
+                inUseKb, budgetKb);
+    }
+
+    private long admit(long memoryKb, long waitNanos) {
+        long reserved = Math.min(memoryKb, budgetKb);
+        inUseKb += reserved;
+        admitted++;
+        totalWaitNanos += waitNanos;
+        maxWaitNanos = Math.max(maxWaitNanos, waitNanos);
+        return reserved;
+    }
+
+    /** Snapshot of queue and wait-time counters since the gate was created. */
+    public static final class Stats {
+        public final int queueDepth;
+        public final int peakQueueDepth;
+        public final long admitted;
+        /** Admissions that had to queue first. */
+        public final long waited;
+        public final long totalWaitNanos;
+        public final long maxWaitNanos;
+        public final long inUseKb;
+        public final long budgetKb;
+
+        Stats(int queueDepth, int peakQueueDepth, long admitted, long waited, long totalWaitNanos,
+              long maxWaitNanos, long inUseKb, long budgetKb) {
+            this.queueDepth = queueDepth;
+            this.peakQueueDepth = peakQueueDepth;
+            this.admitted = admitted;
+            this.waited = waited;
+            this.totalWaitNanos = totalWaitNanos;
+            this.maxWaitNanos = maxWaitNanos;
+            this.inUseKb = inUseKb;
+            this.budgetKb = budgetKb;
+        }
+
+        public long averageWaitMillis() {
+            return waited == 0 ? 0 : totalWaitNanos / waited / 1_000_000L;
+        }
+
+        @Override
+        public String toString() {
+            return "Argon2 admission: " + queueDepth + " queued (peak " + peakQueueDepth + "), "
+                    + admitted + " admitted, " + waited + " waited (avg " + averageWaitMillis() + " ms, max "
+                    + maxWaitNanos / 1_000_000L + " ms), " + (inUseKb >> 10) + "/" + (budgetKb >> 10) + " MiB in use";
+        }
+    }
+}
@@ -1,13 +1,175 @@
 package com.encrypto.app;
 
+import android.app.ActivityManager;
 import android.app.Application;
-import com.google.firebase.FirebaseApp;
+import android.content.SharedPreferences;
+import android.content.pm.ApplicationInfo;
+import android.os.Process;
+import android.util.Base64;
+import android.util.Log;
+
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.firestore.FirebaseFirestore;
+
+import java.security.GeneralSecurityException;
 
 public class EncryptionApp extends Application {
+
+    private static final String TAG = "EncryptionApp";
+    private static final String PREFS = "crypto";
+    private static final String KEY_KDF_PARAMS = "kdf_params";
+    private static final String KEY_CIPHER_SUITE = "cipher_suite";
+    private static final String KEY_CIPHER_SUITE_TIMED_AT = "cipher_suite_timed_at";
+    private static final String KEY_CIPHER_SUITE_VERSION = "cipher_suite_version";
+
+    // A suite choice is timed again after this long, or after an app update
+    private static final long CIPHER_SUITE_RECHECK_MILLIS = 7L * 24 * 60 * 60 * 1000;
+
+    // First-launch measurements wait for the first frame plus this long, so the timings are not
+    // taken while class loading, layout and the first Firebase reads compete for the CPU
+    private static final long MEASURE_SETTLE_MILLIS = 2_000;
+    // Upper bound on the wait for a first frame, for processes started without a screen
+    private static final long FIRST_FRAME_TIMEOUT_MILLIS = 10_000;
+
     @Override
     public void onCreate() {
         super.onCreate();
-        // Initialize Firebase
-        FirebaseApp.initializeApp(this);
+        StartupTrace.mark(StartupTrace.APPLICATION_CREATE);
+        // The default FirebaseApp already exists: FirebaseInitProvider creates it before onCreate.
+        // Only the emulator switch has to happen here, before the first database or Firestore call.
+        if (BuildConfig.USE_FIREBASE_EMULATOR) {
+            FirebaseDatabase.getInstance().useEmulator(BuildConfig.FIREBASE_EMULATOR_HOST, 9000);
+            FirebaseFirestore.getInstance().useEmulator(BuildConfig.FIREBASE_EMULATOR_HOST, 8080);
+        }
+
+        // Nothing else is needed for the first frame, so it runs in the background
+        Thread startup = new Thread(this::initInBackground, "startup");
+        startup.setDaemon(true);
+        startup.start();
+        StartupTrace.mark(StartupTrace.APPLICATION_CREATED);
+    }
+
+    // Cheap steps first, so stored settings are in place long before the first message; the
+    // first-launch measurements come last, once startup has settled, as they take from tens of
+    // milliseconds to seconds. Until a step has run, crypto uses its defaults (legacy Argon2
+    // settings, AES-GCM).
+    private void initInBackground() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+        // Debug builds record latency metrics unless turned off on the diagnostics screen
+        Metrics.setEnabled(getSharedPreferences(MetricsActivity.PREFS, MODE_PRIVATE)
+                .getBoolean(MetricsActivity.KEY_ENABLED, BuildConfig.DEBUG));
+        configureDerivationBudget();
+        SharedPreferences prefs = getSharedPreferences(PREFS, MODE_PRIVATE);
+        boolean calibrated = loadKdfParams(prefs);
+        boolean suiteChosen = loadCipherSuite(prefs);
+        StartupTrace.mark(StartupTrace.PREFERENCES_LOADED);
+
+        try {
+            CryptoUtils.warmUp();
+            StartupTrace.mark(StartupTrace.CRYPTO_WARM);
+        } catch (GeneralSecurityException e) {
+            Log.w(TAG, "Crypto warm-up failed", e);
+        }
+
+        if (suiteChosen && calibrated) {
+            return;
+        }
+        try {
+            StartupTrace.awaitFirstFrame(FIRST_FRAME_TIMEOUT_MILLIS);
+            Thread.sleep(MEASURE_SETTLE_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return; // Measured on the next launch instead
+        }
+        // Timed at normal priority: in the background group the timings would follow whatever else
+        // the device is running, not its speed. The first frame is drawn by now.
+        Process.setThreadPriority(Process.THREAD_PRIORITY_DEFAULT);
+
+        // Before the calibration, whose Argon2 runs would skew the timings
+        if (!suiteChosen) {
+            selectCipherSuite(prefs);
+        }
+        if (!calibrated) {
+            calibrateKdfParams(prefs);
+        }
+    }
+
+    // Concurrent Argon2 runs may use half of the per-app heap the platform grants (a quarter on
+    // low-RAM devices); anything beyond that queues in DerivationGate, and a single run that the
+    // heap cannot hold at all is refused
+    private void configureDerivationBudget() {
+        ActivityManager am = (ActivityManager) getSystemService(ACTIVITY_SERVICE);
+        boolean largeHeap = (getApplicationInfo().flags & ApplicationInfo.FLAG_LARGE_HEAP) != 0;
+        long memoryClass = (largeHeap ? am.getLargeMemoryClass() : am.getMemoryClass()) * 1024L * 1024L;
+        long heap = Math.min(Runtime.getRuntime().maxMemory(), memoryClass);
+        DerivationGate gate = DerivationGate.getInstance();
+        gate.setHeapLimitBytes(heap);
+        gate.setBudgetBytes(am.isLowRamDevice() ? heap / 4 : heap / 2);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // Idle Argon2 arenas are tens of MiB each; give them back once the UI is hidden
+        if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            Argon2Engine engine = Argon2Engine.getInstance();
+            Log.i(TAG, engine.getStats().toString());
+            Log.i(TAG, DerivationGate.getInstance().getStats().toString());
+            engine.trim();
+        }
+    }
+
+    // Installs the stored Argon2 calibration; false if this device has not been measured yet
+    private boolean loadKdfParams(SharedPreferences prefs) {
+        String stored = prefs.getString(KEY_KDF_PARAMS, null);
+        if (stored != null) {
+            try {
+                CryptoUtils.setKdfParams(KdfParams.decode(Base64.decode(stored, Base64.NO_WRAP)));
+                return true;
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Discarding invalid Argon2 calibration", e);
+            }
+        }
+        return false;
+    }
+
+    private void calibrateKdfParams(SharedPreferences prefs) {
+        KdfParams params = new KdfCalibrator(KdfCalibrator.DEFAULT_TARGET_MILLIS).calibrate();
+        Log.i(TAG, "Calibrated " + params);
+        CryptoUtils.setKdfParams(params);
+        prefs.edit()
+                .putString(KEY_KDF_PARAMS, Base64.encodeToString(params.encode(), Base64.NO_WRAP))
+                .apply();
+    }
+
+    // Installs the stored suite choice; false if AES-GCM and ChaCha20-Poly1305 have not been timed
+    // yet, or were timed too long ago or by an older app version. A stale choice stays in use until
+    // the new timing replaces it, so one noisy measurement is not kept for good.
+    private boolean loadCipherSuite(SharedPreferences prefs) {
+        int stored = prefs.getInt(KEY_CIPHER_SUITE, -1);
+        if (stored >= 0) {
+            try {
+                CryptoUtils.setCipherSuite(CipherSuite.fromId(stored));
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Discarding unknown cipher suite " + stored, e);
+                return false;
+            }
+            long age = System.currentTimeMillis() - prefs.getLong(KEY_CIPHER_SUITE_TIMED_AT, 0L);
+            return age >= 0 && age < CIPHER_SUITE_RECHECK_MILLIS
+                    && prefs.getInt(KEY_CIPHER_SUITE_VERSION, -1) == BuildConfig.VERSION_CODE;
+        }
+        return false;
+    }
+
+    private void selectCipherSuite(SharedPreferences prefs) {
+        CipherSuite suite = CipherSuite.selectFastest();
+        Log.i(TAG, "Selected cipher suite " + suite);
+        CryptoUtils.setCipherSuite(suite);
+        prefs.edit()
+                .putInt(KEY_CIPHER_SUITE, suite.id)
+                .putLong(KEY_CIPHER_SUITE_TIMED_AT, System.currentTimeMillis())
+                .putInt(KEY_CIPHER_SUITE_VERSION, BuildConfig.VERSION_CODE)
+                .apply();
     }
 }
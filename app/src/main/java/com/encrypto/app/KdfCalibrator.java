@@ -0,0 +1,117 @@
+package com.encrypto.app;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Picks the strongest Argon2id settings this device can run within a latency budget.
+ *
+ * One small probe derivation gives the cost of a memory pass on this hardware; candidates are then
+ * ranked memory first (the property that hurts GPU and ASIC attackers most), iterations second, and
+ * the winner is timed once more so a bad estimate can only step the result down. The result never
+ * drops below {@link #FLOOR}, even on devices that miss the budget with it, and never exceeds the
+ * portable memory ceiling, since other devices have to read what this one writes. Parallelism
+ * follows the core count (2 to 4), since the lanes are filled concurrently.
+ */
+public final class KdfCalibrator {
+
+    public static final long DEFAULT_TARGET_MILLIS = 500;
+
+    /** Weakest settings ever chosen: 16 MiB with 3 passes. */
+    static final KdfParams FLOOR = new KdfParams(3, 14, 2);
+
+    // Argon2Engine fills lanes on separate cores, so extra lanes are nearly free up to the core count
+    private static final int MAX_CALIBRATED_PARALLELISM = 4;
+
+    private static final int MAX_CALIBRATED_ITERATIONS = 8;
+    private static final int PROBE_MEMORY_LOG2 = 14; // 16 MiB
+    private static final int MAX_STEP_DOWNS = 3;
+
+    private final long targetNanos;
+    private final int maxMemoryLog2;
+    private final int parallelism;
+    private final KdfParams floor;
+
+    public KdfCalibrator(long targetMillis) {
+        this(targetMillis, Runtime.getRuntime().maxMemory(), Runtime.getRuntime().availableProcessors());
+    }
+
+    KdfCalibrator(long targetMillis, long heapBytes, int cores) {
+        if (targetMillis <= 0) {
+            throw new IllegalArgumentException("Target latency must be positive");
+        }
+        this.targetNanos = targetMillis * 1_000_000L;
+        // Leave most of the heap to the app: one derivation may use at most a quarter of it
+        int log2 = 63 - Long.numberOfLeadingZeros(Math.max(1, heapBytes / 4 / 1024));
+        this.maxMemoryLog2 = Math.max(FLOOR.memoryLog2, Math.min(KdfParams.PORTABLE_MAX_MEMORY_LOG2, log2));
+        this.parallelism = Math.max(FLOOR.parallelism, Math.min(MAX_CALIBRATED_PARALLELISM, cores));
+        this.floor = new KdfParams(FLOOR.iterations, FLOOR.memoryLog2, parallelism);
+    }
+
+    /** Runs several Argon2 derivations; call from a background thread. */
+    public KdfParams calibrate() {
+        KdfParams probe = new KdfParams(1, PROBE_MEMORY_LOG2, parallelism);
+        measure(probe); // Warm-up so class loading and JIT do not skew the estimate
+        double nanosPerUnit = (double) measure(probe) / probe.cost();
+
+        KdfParams chosen = pick(nanosPerUnit);
+        for (int i = 0; i < MAX_STEP_DOWNS && !chosen.equals(floor); i++) {
+            long elapsed = measure(chosen);
+            if (elapsed <= targetNanos + targetNanos / 2) {
+                break;
+            }
+            // Re-estimate from the real timing and try again
+            nanosPerUnit = (double) elapsed / chosen.cost();
+            KdfParams smaller = pick(nanosPerUnit);
+            chosen = smaller.cost() < chosen.cost() ? smaller : stepDown(chosen);
+        }
+        return chosen;
+    }
+
+    private KdfParams pick(double nanosPerUnit) {
+        for (int memoryLog2 = maxMemoryLog2; memoryLog2 >= FLOOR.memoryLog2; memoryLog2--) {
+            for (int iterations = MAX_CALIBRATED_ITERATIONS; iterations >= FLOOR.iterations; iterations--) {
+                KdfParams candidate = new KdfParams(iterations, memoryLog2, parallelism);
+                if (candidate.cost() * nanosPerUnit <= targetNanos) {
+                    return candidate;
+                }
+            }
+        }
+        return floor;
+    }
+
+    private KdfParams stepDown(KdfParams params) {
+        if (params.iterations > FLOOR.iterations) {
+            return new KdfParams(params.iterations - 1, params.memoryLog2, params.parallelism);
+        }
+        if (params.memoryLog2 > FLOOR.memoryLog2) {
+            return new KdfParams(params.iterations, params.memoryLog2 - 1, params.parallelism);
+        }
+        return floor;
+    }
+
+    // Times the Argon2 run alone. The memory is still reserved through DerivationGate, so calibration
+    // cannot push concurrent derivations past the budget, but time spent queued behind them says
+    // nothing about this device and would steer the choice toward the floor.
+    static long measure(KdfParams params) {
+        DerivationGate gate = DerivationGate.getInstance();
+        long reserved;
+        try {
+            reserved = gate.acquire(params.memoryKb());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for key derivation memory", e);
+        }
+        byte[] password = "calibration".getBytes(StandardCharsets.UTF_8);
+        byte[] salt = new byte[CryptoUtils.SALT_LENGTH];
+        try {
+            long start = System.nanoTime();
+            byte[] key = Argon2Engine.getInstance().derive(password, salt, params, CryptoUtils.KEY_LENGTH);
+            long elapsed = System.nanoTime() - start;
+            Arrays.fill(key, (byte) 0);
+            return elapsed;
+        } finally {
+            gate.release(reserved);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.encrypto.app;
+
+/**
+ * Argon2id cost settings, as written into version 4 and 5 ciphertext headers.
+ *
+ * Encoded form (3 bytes): [iterations | log2(memory in KiB) | parallelism]. Memory is restricted to
+ * powers of two so it fits one byte. Decoding enforces hard bounds, because the header is attacker
+ * controlled and an oversized value would otherwise let a crafted payload exhaust memory or CPU.
+ */
+public final class KdfParams {
+
+    static final int ENCODED_LENGTH = 3;
+
+    static final int MIN_ITERATIONS = 1;
+    static final int MAX_ITERATIONS = 16;
+    static final int MIN_MEMORY_LOG2 = 13;   // 8 MiB
+    static final int MAX_MEMORY_LOG2 = 18;   // 256 MiB
+    // Highest memory cost written into new payloads and rooms. Ciphertexts and rooms are shared
+    // across devices, so the cost must fit the smallest heap that has to read them, not the heap
+    // of the device that wrote them. Same as LEGACY, which every supported device already runs.
+    static final int PORTABLE_MAX_MEMORY_LOG2 = 16; // 64 MiB
+    static final int MIN_PARALLELISM = 1;
+    static final int MAX_PARALLELISM = 8;
+
+    /** The fixed settings used by version 2/3 payloads and the file format. */
+    public static final KdfParams LEGACY = new KdfParams(4, 16, 2);
+
+    public final int iterations;
+    public final int memoryLog2;
+    public final int parallelism;
+
+    public KdfParams(int iterations, int memoryLog2, int parallelism) {
+        if (iterations < MIN_ITERATIONS || iterations > MAX_ITERATIONS) {
+            throw new IllegalArgumentException("Invalid Argon2 iterations: " + iterations);
+        }
+        if (memoryLog2 < MIN_MEMORY_LOG2 || memoryLog2 > MAX_MEMORY_LOG2) {
+            throw new IllegalArgumentException("Invalid Argon2 memory exponent: " + memoryLog2);
+        }
+        if (parallelism < MIN_PARALLELISM || parallelism > MAX_PARALLELISM) {
+            throw new IllegalArgumentException("Invalid Argon2 parallelism: " + parallelism);
+        }
+        this.iterations = iterations;
+        this.memoryLog2 = memoryLog2;
+        this.parallelism = parallelism;
+    }
+
+    public int memoryKb() {
+        return 1 << memoryLog2;
+    }
+
+    /** These settings with the memory cost capped at the portable ceiling. */
+    public KdfParams portable() {
+        return memoryLog2 <= PORTABLE_MAX_MEMORY_LOG2
+                ? this
+                : new KdfParams(iterations, PORTABLE_MAX_MEMORY_LOG2, parallelism);
+    }
+
+    void writeTo(byte[] out, int offset) {
+        out[offset] = (byte) iterations;
+        out[offset + 1] = (byte) memoryLog2;
+        out[offset + 2] = (byte) parallelism;
+    }
+
+    byte[] encode() {
+        byte[] out = new byte[ENCODED_LENGTH];
+        writeTo(out, 0);
+        return out;
+    }
+
+    /** Reads and validates header bytes; out-of-range values throw IllegalArgumentException. */
+    static KdfParams readFrom(byte[] in, int offset) {
+        if (in.length < offset + ENCODED_LENGTH) {
+            throw new IllegalArgumentException("Truncated Argon2 parameters");
+        }
+        return new KdfParams(in[offset] & 0xff, in[offset + 1] & 0xff, in[offset + 2] & 0xff);
+    }
+
+    static KdfParams decode(byte[] encoded) {
+        if (encoded.length != ENCODED_LENGTH) {
+            throw new IllegalArgumentException("Invalid Argon2 parameters length");
+        }
+        return readFrom(encoded, 0);
+    }
+
+    /** Rough cost figure used to rank candidates: memory blocks touched across all passes. */
+    long cost() {
+        return (long) iterations << memoryLog2;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof KdfParams)) return false;
+        KdfParams other = (KdfParams) o;
+        return iterations == other.iterations && memoryLog2 == other.memoryLog2 && parallelism == other.parallelism;
+    }
+
+    @Override
+    public int hashCode() {
+        return (iterations * 31 + memoryLog2) * 31 + parallelism;
+    }
+
+    @Override
+    public String toString() {
+        return "Argon2id(t=" + iterations + ", m=" + (memoryKb() / 1024) + " MiB, p=" + parallelism + ")";
+    }
+}
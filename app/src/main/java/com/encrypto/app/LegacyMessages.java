@@ -0,0 +1,54 @@
+package com.encrypto.app;
+
+import com.encrypto.app.models.ChatMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Messages without a server write time: written before {@code updatedAt} existed, or by clients that
+ * still do not set it.
+ *
+ * Firestore leaves a document out of every query ordered by a field it lacks, so the updatedAt-ordered
+ * live window and backfill never return these. They are read from queries in the senders' timestamp
+ * order instead, as the app did before, and picked out of those pages here; everything else in such a
+ * page also arrives through the updatedAt queries. Without a server time there is no gap-free cursor
+ * for them, so the backfill starts {@link #SKEW_MILLIS} before the newest stored message to catch
+ * senders whose clocks run behind.
+ */
+final class LegacyMessages {
+
+    static final long SKEW_MILLIS = 60 * 60 * 1000L;
+
+    private LegacyMessages() {
+    }
+
+    static boolean isLegacy(ChatMessage msg) {
+        return msg.updatedAt == null;
+    }
+
+    /** The messages of a timestamp-ordered page that the updatedAt-ordered queries cannot return. */
+    static List<ChatMessage> select(List<ChatMessage> page) {
+        List<ChatMessage> legacy = new ArrayList<>();
+        for (ChatMessage msg : page) {
+            if (isLegacy(msg)) {
+                legacy.add(msg);
+            }
+        }
+        return legacy;
+    }
+
+    /** Adds or replaces the legacy messages of the page in the list. Returns the ones merged. */
+    static List<ChatMessage> merge(MessageList list, List<ChatMessage> page) {
+        List<ChatMessage> legacy = select(page);
+        for (ChatMessage msg : legacy) {
+            list.upsert(msg);
+        }
+        return legacy;
+    }
+
+    /** Sender time the legacy backfill starts at, given the newest message already stored. */
+    static long backfillStart(ChatMessage newestStored) {
+        return Math.max(0L, newestStored.timestamp - SKEW_MILLIS);
+    }
+}
@@ -28,6 +28,8 @@ public class LoginActivity extends AppCompatActivity {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_login);
+        StartupTrace.mark(StartupTrace.ACTIVITY_CREATED);
+        StartupTrace.watchFirstFrame(this);
 
         mAuth = FirebaseAuth.getInstance();
 
@@ -3,10 +3,16 @@ package com.encrypto.app;
 import android.animation.LayoutTransition;
 import android.content.ClipData;
 import android.content.ClipboardManager;
+import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
+import android.database.Cursor;
 import android.graphics.Color;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.provider.DocumentsContract;
+import android.provider.OpenableColumns;
 import android.text.Editable;
 import android.text.InputType;
 import android.text.TextUtils;
@@ -18,45 +24,102 @@ import android.widget.ImageView;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 import android.widget.Toast;
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
+import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.SwitchCompat;
 import androidx.core.content.ContextCompat;
+import androidx.lifecycle.ViewModelProvider;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
 
-public class MainActivity extends AppCompatActivity {
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+public class MainActivity extends AppCompatActivity implements CryptoViewModel.Listener {
     private FirebaseAuth mAuth;
 
     private enum Mode {
-        ENCRYPT, DECRYPT, HASH
+        ENCRYPT, DECRYPT, HASH, FILE
     }
 
+    private static final String STATE_MODE = "mode";
+    private static final String STATE_SOURCE_URI = "pending_source_uri";
+    private static final String STATE_SOURCE_ENCRYPTED = "pending_source_encrypted";
+
+    // Tree roots only match other tree hashes with the same leaf size, never a published checksum
+    private static final String TREE_HASH_SUFFIX = " tree hash (" + (TreeHasher.DEFAULT_LEAF_SIZE / (1024 * 1024)) + " MiB leaves)";
+
     private Mode currentMode = Mode.ENCRYPT;
     private boolean isPasswordVisible = false;
 
+    // Outlives a rotation, so a running file operation and its result are not lost
+    private CryptoViewModel cryptoJobs;
+
+    // File mode: source picked first, then the output location
+    private ActivityResultLauncher<String[]> openFileLauncher;
+    private ActivityResultLauncher<String> createFileLauncher;
+    private Uri pendingSourceUri;
+    private boolean pendingSourceEncrypted;
+
     // UI Components
-    private TextView tabEncrypt, tabDecrypt, tabHash;
+    private TextView tabEncrypt, tabDecrypt, tabHash, tabFile;
     private TextView tvInputLabel, tvPasswordLabel, tvOutputLabel;
     private EditText etInput, etPassword, etOutput;
     private Button btnProcess, btnClear;
     private ImageView btnCopy, btnPaste, btnTogglePassword;
+    private SwitchCompat switchTreeHash;
     private LinearLayout layoutOutput;
     private TextView btnLogout;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        setContentView(R.layout.activity_main);
         mAuth = FirebaseAuth.getInstance();
+        // Signed out: go straight to the login screen without inflating this one
+        if (mAuth.getCurrentUser() == null) {
+            startActivity(new Intent(MainActivity.this, LoginActivity.class));
+            finish();
+            return;
+        }
+        setContentView(R.layout.activity_main);
+        StartupTrace.mark(StartupTrace.ACTIVITY_CREATED);
+        StartupTrace.watchFirstFrame(this);
+
+        if (savedInstanceState != null) {
+            currentMode = Mode.valueOf(savedInstanceState.getString(STATE_MODE, Mode.ENCRYPT.name()));
+            pendingSourceUri = savedInstanceState.getParcelable(STATE_SOURCE_URI);
+            pendingSourceEncrypted = savedInstanceState.getBoolean(STATE_SOURCE_ENCRYPTED);
+        }
 
         initializeViews();
+        registerFileLaunchers();
         setupListeners();
         updateUIState(); // Set initial state
+
+        cryptoJobs = new ViewModelProvider(this).get(CryptoViewModel.class);
+        cryptoJobs.attach(this);
+    }
+
+    @Override
+    protected void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
+        // A rotation between picking the source and choosing the output must keep the selection
+        outState.putString(STATE_MODE, currentMode.name());
+        outState.putParcelable(STATE_SOURCE_URI, pendingSourceUri);
+        outState.putBoolean(STATE_SOURCE_ENCRYPTED, pendingSourceEncrypted);
     }
 
     private void initializeViews() {
         tabEncrypt = findViewById(R.id.tabEncrypt);
         tabDecrypt = findViewById(R.id.tabDecrypt);
         tabHash = findViewById(R.id.tabHash);
+        tabFile = findViewById(R.id.tabFile);
 
         tvInputLabel = findViewById(R.id.tvInputLabel);
         tvPasswordLabel = findViewById(R.id.tvPasswordLabel);
@@ -65,6 +128,7 @@ public class MainActivity extends AppCompatActivity {
         etInput = findViewById(R.id.etInput);
         etPassword = findViewById(R.id.etPassword);
         etOutput = findViewById(R.id.etOutput);
+        switchTreeHash = findViewById(R.id.switchTreeHash);
 
         btnProcess = findViewById(R.id.btnProcess);
         btnClear = findViewById(R.id.btnClear);
@@ -91,6 +155,7 @@ public class MainActivity extends AppCompatActivity {
         tabEncrypt.setOnClickListener(v -> switchMode(Mode.ENCRYPT));
         tabDecrypt.setOnClickListener(v -> switchMode(Mode.DECRYPT));
         tabHash.setOnClickListener(v -> switchMode(Mode.HASH));
+        tabFile.setOnClickListener(v -> switchMode(Mode.FILE));
 
         // Process Button
         btnProcess.setOnClickListener(v -> handleProcess());
@@ -163,6 +228,11 @@ public class MainActivity extends AppCompatActivity {
         btnGuide.setOnClickListener(v -> {
             startActivity(new Intent(MainActivity.this, GuideActivity.class));
         });
+        // Hidden entry to the diagnostics screen for bug reports
+        btnGuide.setOnLongClickListener(v -> {
+            startActivity(new Intent(MainActivity.this, MetricsActivity.class));
+            return true;
+        });
     }
 
     private void togglePasswordVisibility() {
@@ -181,6 +251,8 @@ public class MainActivity extends AppCompatActivity {
     private void switchMode(Mode mode) {
         if (currentMode == mode) return; // No change
         
+        // Drop any result still being computed for the previous mode
+        cryptoJobs.cancel();
         currentMode = mode;
         etOutput.setText("");
         layoutOutput.setVisibility(View.GONE);
@@ -192,11 +264,14 @@ public class MainActivity extends AppCompatActivity {
         resetTabStyle(tabEncrypt);
         resetTabStyle(tabDecrypt);
         resetTabStyle(tabHash);
+        resetTabStyle(tabFile);
+        switchTreeHash.setVisibility(currentMode == Mode.HASH ? View.VISIBLE : View.GONE);
 
         // Highlight Active Tab and Update Labels
         switch (currentMode) {
             case ENCRYPT:
                 highlightTab(tabEncrypt);
+                setInputVisible(true);
                 tvInputLabel.setText("Message to Encrypt");
                 etInput.setHint("Enter your message here...");
                 tvPasswordLabel.setVisibility(View.VISIBLE);
@@ -213,6 +288,7 @@ public class MainActivity extends AppCompatActivity {
 
             case DECRYPT:
                 highlightTab(tabDecrypt);
+                setInputVisible(true);
                 tvInputLabel.setText("Encrypted Message");
                 etInput.setHint("Paste encrypted text here...");
                 tvPasswordLabel.setVisibility(View.VISIBLE);
@@ -225,18 +301,36 @@ public class MainActivity extends AppCompatActivity {
 
             case HASH:
                 highlightTab(tabHash);
+                setInputVisible(true);
                 tvInputLabel.setText("Text to Hash");
-                etInput.setHint("Enter text...");
+                etInput.setHint("Enter text, or leave empty to hash a file...");
                 tvPasswordLabel.setVisibility(View.GONE);
                 // etPassword.setVisibility(View.GONE);
                 ((View)etPassword.getParent()).setVisibility(View.GONE);
                 
                 btnProcess.setText("Generate Hash");
-                tvOutputLabel.setText("Hash Result (SHA-256)");
+                tvOutputLabel.setText("Hash Results");
+                break;
+
+            case FILE:
+                highlightTab(tabFile);
+                // Files are picked through the system picker, so the text input is not used
+                setInputVisible(false);
+                tvPasswordLabel.setVisibility(View.VISIBLE);
+                ((View)etPassword.getParent()).setVisibility(View.VISIBLE);
+
+                btnProcess.setText("Choose File");
+                tvOutputLabel.setText("File Result");
                 break;
         }
     }
 
+    private void setInputVisible(boolean visible) {
+        int visibility = visible ? View.VISIBLE : View.GONE;
+        tvInputLabel.setVisibility(visibility);
+        ((View)etInput.getParent()).setVisibility(visibility);
+    }
+
     private void resetTabStyle(TextView tab) {
         tab.setBackground(null);
         tab.setTextColor(ContextCompat.getColor(this, R.color.purple_200));
@@ -251,7 +345,12 @@ public class MainActivity extends AppCompatActivity {
         String input = etInput.getText().toString().trim();
         String password = etPassword.getText().toString();
 
-        if (TextUtils.isEmpty(input)) {
+        if (currentMode == Mode.HASH && TextUtils.isEmpty(input)) {
+            openFileLauncher.launch(new String[]{"*/*"});
+            return;
+        }
+
+        if (currentMode != Mode.FILE && TextUtils.isEmpty(input)) {
             Toast.makeText(this, "Please enter input text", Toast.LENGTH_SHORT).show();
             return;
         }
@@ -261,25 +360,166 @@ public class MainActivity extends AppCompatActivity {
             return;
         }
 
-        try {
-            String result = "";
-            switch (currentMode) {
+        if (currentMode == Mode.FILE) {
+            openFileLauncher.launch(new String[]{"*/*"});
+            return;
+        }
+
+        final Mode mode = currentMode;
+        cryptoJobs.run(() -> {
+            switch (mode) {
                 case ENCRYPT:
-                    result = CryptoUtils.encrypt(input, password);
-                    break;
+                    return CryptoUtils.encrypt(input, password);
                 case DECRYPT:
-                    result = CryptoUtils.decrypt(input, password);
-                    break;
-                case HASH:
-                    result = CryptoUtils.hash(input, "SHA-256");
-                    break;
+                    return CryptoUtils.decrypt(input, password);
+                default:
+                    return formatDigests(StreamHasher.hash(input.getBytes(StandardCharsets.UTF_8),
+                            StreamHasher.Algorithm.values()), "");
             }
-            displayResult(result);
-        } catch (Exception e) {
-            Toast.makeText(this, "Error: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-            etOutput.setText("");
-            layoutOutput.setVisibility(View.GONE);
+        });
+    }
+
+    private void registerFileLaunchers() {
+        openFileLauncher = registerForActivityResult(new ActivityResultContracts.OpenDocument(), this::onSourceFilePicked);
+        createFileLauncher = registerForActivityResult(
+                new ActivityResultContracts.CreateDocument("application/octet-stream"), this::onOutputFileChosen);
+    }
+
+    private void onSourceFilePicked(Uri uri) {
+        if (uri == null) return;
+
+        if (currentMode == Mode.HASH) {
+            hashFile(uri);
+            return;
         }
+
+        // Files that already carry the segmented header are decrypted, everything else is encrypted
+        cryptoJobs.probeSource(getApplicationContext().getContentResolver(), uri);
+    }
+
+    @Override
+    public void onSourceProbed(Uri source, String name, boolean encrypted) {
+        pendingSourceUri = source;
+        pendingSourceEncrypted = encrypted;
+        if (encrypted) {
+            createFileLauncher.launch(name.endsWith(".enc") ? name.substring(0, name.length() - 4) : name + ".dec");
+        } else {
+            createFileLauncher.launch(name + ".enc");
+        }
+    }
+
+    private void onOutputFileChosen(Uri output) {
+        Uri source = pendingSourceUri;
+        pendingSourceUri = null;
+        if (output == null || source == null) return;
+
+        final boolean decrypt = pendingSourceEncrypted;
+        final String password = etPassword.getText().toString();
+        final ContentResolver resolver = getApplicationContext().getContentResolver();
+
+        cryptoJobs.run(() -> {
+            // Streamed segment by segment across all cores; memory stays flat however large the file is
+            try (InputStream in = resolver.openInputStream(source);
+                 OutputStream out = resolver.openOutputStream(output, "wt")) {
+                if (in == null || out == null) {
+                    throw new IOException("Unable to open file");
+                }
+                if (decrypt) {
+                    ParallelStreamCrypto.getInstance().decrypt(in, out, password);
+                } else {
+                    ParallelStreamCrypto.getInstance().encrypt(in, out, password);
+                }
+            } catch (Exception e) {
+                // Don't leave a partial or unauthenticated file behind
+                try {
+                    DocumentsContract.deleteDocument(resolver, output);
+                } catch (Exception ignored) {
+                }
+                throw e;
+            }
+            return (decrypt ? "Decrypted file saved as " : "Encrypted file saved as ") + queryDisplayName(resolver, output);
+        });
+    }
+
+    private void hashFile(Uri uri) {
+        final ContentResolver resolver = getApplicationContext().getContentResolver();
+        final boolean tree = switchTreeHash.isChecked();
+        cryptoJobs.run(() -> {
+            // All digests in one read pass; local files are memory-mapped, other providers streamed
+            Map<StreamHasher.Algorithm, byte[]> digests;
+            try (ParcelFileDescriptor pfd = resolver.openFileDescriptor(uri, "r")) {
+                if (pfd == null) {
+                    throw new IOException("Unable to open file");
+                }
+                if (tree) {
+                    // Leaves are read at their own offsets by several threads, which a pipe cannot serve
+                    if (pfd.getStatSize() < 0) {
+                        throw new IOException("Tree hash needs a file stored on the device");
+                    }
+                    digests = TreeHasher.getInstance().hash(new FileInputStream(pfd.getFileDescriptor()).getChannel(),
+                            StreamHasher.Algorithm.values());
+                    return queryDisplayName(resolver, uri) + "\n\n" + formatDigests(digests, TREE_HASH_SUFFIX);
+                }
+                if (pfd.getStatSize() >= 0) {
+                    // The descriptor is owned and closed by pfd
+                    digests = StreamHasher.hash(new FileInputStream(pfd.getFileDescriptor()).getChannel(),
+                            StreamHasher.Algorithm.values());
+                } else {
+                    // Pipes have no size and cannot be mapped
+                    digests = StreamHasher.hash(new FileInputStream(pfd.getFileDescriptor()),
+                            StreamHasher.Algorithm.values());
+                }
+            }
+            return queryDisplayName(resolver, uri) + "\n\n" + formatDigests(digests, "");
+        });
+    }
+
+    private static String formatDigests(Map<StreamHasher.Algorithm, byte[]> digests, String labelSuffix) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<StreamHasher.Algorithm, byte[]> entry : digests.entrySet()) {
+            if (sb.length() > 0) sb.append("\n\n");
+            sb.append(entry.getKey().displayName).append(labelSuffix).append('\n')
+                    .append(CryptoUtils.bytesToHex(entry.getValue()));
+        }
+        return sb.toString();
+    }
+
+    // Static so jobs that call it do not hold on to the Activity
+    static String queryDisplayName(ContentResolver resolver, Uri uri) {
+        try (Cursor cursor = resolver.query(uri, new String[]{OpenableColumns.DISPLAY_NAME}, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                String name = cursor.getString(0);
+                if (name != null) return name;
+            }
+        } catch (Exception ignored) {
+        }
+        String segment = uri.getLastPathSegment();
+        return segment != null ? segment : "file";
+    }
+
+    // --- CryptoViewModel.Listener ---
+
+    @Override
+    public void onBusyChanged(boolean busy) {
+        // Key derivation can take a while; keep the button disabled until the result is back
+        btnProcess.setEnabled(!busy);
+        if (busy) {
+            btnProcess.setText("Working...");
+        } else {
+            updateUIState();
+        }
+    }
+
+    @Override
+    public void onResult(String result) {
+        displayResult(result);
+    }
+
+    @Override
+    public void onError(Exception e) {
+        Toast.makeText(this, "Error: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+        etOutput.setText("");
+        layoutOutput.setVisibility(View.GONE);
     }
 
     private void displayResult(String result) {
@@ -300,9 +540,19 @@ public class MainActivity extends AppCompatActivity {
         Toast.makeText(this, "Copied to clipboard", Toast.LENGTH_SHORT).show();
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // The jobs belong to CryptoViewModel and are only cancelled once this screen is finished
+        if (cryptoJobs != null) {
+            cryptoJobs.detach(this);
+        }
+    }
+
     @Override
     protected void onStart() {
         super.onStart();
+        if (isFinishing()) return;
         FirebaseUser currentUser = mAuth.getCurrentUser();
         if (currentUser == null) {
             startActivity(new Intent(MainActivity.this, LoginActivity.class));
@@ -0,0 +1,198 @@
+package com.encrypto.app;
+
+import com.encrypto.app.models.ChatMessage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ID-keyed chat messages in display order, (timestamp, document ID) ascending, followed by the local
+ * echoes of messages still being sent.
+ *
+ * Messages come from several sources that may overlap: the on-device store, older pages, the
+ * backfill after an absence and the live listener. Every one goes through {@link #upsert}, so a
+ * message is shown once, at its place, and a rewrite replaces it there with one precise adapter
+ * notification. The oldest messages can be trimmed to keep memory bounded; the newest
+ * {@code liveWindow} messages never are. Local echoes stay at the end until their document arrives
+ * with the same ID.
+ */
+public class MessageList {
+
+    public interface Observer {
+        void onInserted(int position, int count);
+
+        void onChanged(int position);
+
+        void onMoved(int fromPosition, int toPosition);
+
+        void onRemoved(int position, int count);
+    }
+
+    // Same order as the (timestamp, document ID) cursors used for older pages
+    static final Comparator<ChatMessage> ORDER = new Comparator<ChatMessage>() {
+        @Override
+        public int compare(ChatMessage a, ChatMessage b) {
+            if (a.timestamp != b.timestamp) {
+                return a.timestamp < b.timestamp ? -1 : 1;
+            }
+            return a.id.compareTo(b.id);
+        }
+    };
+
+    private final int liveWindow;
+    private final List<ChatMessage> messages = new ArrayList<>();
+    private final Map<String, ChatMessage> byId = new HashMap<>();
+    private final List<ChatMessage> pending = new ArrayList<>();
+    private Observer observer;
+
+    /** liveWindow: number of newest messages that {@link #trimOldest(int)} leaves alone. */
+    public MessageList(int liveWindow) {
+        this.liveWindow = liveWindow;
+    }
+
+    public void setObserver(Observer observer) {
+        this.observer = observer;
+    }
+
+    public int size() {
+        return messages.size() + pending.size();
+    }
+
+    public ChatMessage get(int position) {
+        return position < messages.size() ? messages.get(position) : pending.get(position - messages.size());
+    }
+
+    public ChatMessage findById(String id) {
+        ChatMessage msg = byId.get(id);
+        if (msg != null) return msg;
+        for (ChatMessage echo : pending) {
+            if (echo.id.equals(id)) return echo;
+        }
+        return null;
+    }
+
+    /** Current position of the message, or -1 once it has been replaced, removed or trimmed. */
+    public int indexOf(ChatMessage message) {
+        if (message.id != null && byId.get(message.id) == message) {
+            return Collections.binarySearch(messages, message, ORDER);
+        }
+        int position = pending.indexOf(message);
+        return position >= 0 ? messages.size() + position : -1;
+    }
+
+    /** Shows a message that is still being sent at the end of the list. It needs a document ID. */
+    public void addPending(ChatMessage echo) {
+        pending.add(echo);
+        if (observer != null) observer.onInserted(size() - 1, 1);
+    }
+
+    /** True for a local echo: a message still being sent, not yet returned by Firestore. */
+    public boolean isLocalEcho(ChatMessage message) {
+        return pending.contains(message);
+    }
+
+    /** Messages older than the live window, the ones {@link #trimOldest(int)} may drop. */
+    public int historySize() {
+        return Math.max(0, messages.size() - liveWindow);
+    }
+
+    /** The oldest loaded message, the cursor for the next older page; null when nothing is loaded. */
+    public ChatMessage oldest() {
+        return messages.isEmpty() ? null : messages.get(0);
+    }
+
+    /**
+     * Adds the message at its place, or replaces the copy with the same ID (moving it if its
+     * timestamp changed). Returns true if the message was not loaded before.
+     */
+    public boolean upsert(ChatMessage msg) {
+        removePending(msg.id); // Our own message is back: the server copy replaces the echo
+        ChatMessage previous = byId.put(msg.id, msg);
+        if (previous == null) {
+            int position = insertionPoint(msg);
+            messages.add(position, msg);
+            if (observer != null) observer.onInserted(position, 1);
+            return true;
+        }
+        int from = Collections.binarySearch(messages, previous, ORDER);
+        messages.remove(from);
+        int to = insertionPoint(msg);
+        messages.add(to, msg);
+        if (observer != null) {
+            if (from != to) observer.onMoved(from, to);
+            observer.onChanged(to);
+        }
+        return false;
+    }
+
+    /**
+     * Adds an older page (ascending order). Returns how many messages went in front of the message
+     * that was first before, so the screen can keep its scroll position.
+     */
+    public int prependOlder(List<ChatMessage> page) {
+        ChatMessage first = oldest();
+        List<ChatMessage> older = new ArrayList<>();
+        List<ChatMessage> rest = new ArrayList<>();
+        for (ChatMessage msg : page) {
+            if ((first == null || ORDER.compare(msg, first) < 0) && !byId.containsKey(msg.id)) {
+                removePending(msg.id);
+                older.add(msg);
+            } else {
+                rest.add(msg);
+            }
+        }
+        // The usual case, a page strictly older than everything loaded, is one range insert
+        if (!older.isEmpty()) {
+            Collections.sort(older, ORDER);
+            messages.addAll(0, older);
+            for (ChatMessage msg : older) {
+                byId.put(msg.id, msg);
+            }
+            if (observer != null) observer.onInserted(0, older.size());
+        }
+        for (ChatMessage msg : rest) {
+            upsert(msg);
+        }
+        return older.size();
+    }
+
+    /** Replaces every loaded message, e.g. with the newest stored page once a backfill left a gap. */
+    public void replaceAll(List<ChatMessage> latest) {
+        int count = messages.size();
+        messages.clear();
+        byId.clear();
+        if (observer != null && count > 0) observer.onRemoved(0, count);
+        prependOlder(latest);
+    }
+
+    /** Drops up to {@code count} of the oldest messages. The live window is never touched. */
+    public void trimOldest(int count) {
+        count = Math.min(count, historySize());
+        if (count <= 0) return;
+        List<ChatMessage> dropped = messages.subList(0, count);
+        for (ChatMessage msg : dropped) {
+            byId.remove(msg.id);
+        }
+        dropped.clear();
+        if (observer != null) observer.onRemoved(0, count);
+    }
+
+    private int insertionPoint(ChatMessage msg) {
+        int index = Collections.binarySearch(messages, msg, ORDER);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    private void removePending(String id) {
+        for (int i = 0; i < pending.size(); i++) {
+            if (pending.get(i).id.equals(id)) {
+                pending.remove(i);
+                if (observer != null) observer.onRemoved(messages.size() + i, 1);
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.encrypto.app;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.encrypto.app.models.ChatMessage;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.Blob;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * On-device copy of every room's messages, still encrypted, indexed by room and timestamp.
+ *
+ * Reopening a room shows the stored history straight away and only asks Firestore for what was
+ * written after the room's sync cursor: the server time and ID of the last document known to be
+ * synced without a gap. Server time, not the sender's timestamp, so late or skewed writes are not
+ * skipped. Rows hold exactly what Firestore holds, so nothing readable is ever written to disk.
+ * Queries run on one background thread, in submission order, and results are posted to the main
+ * thread; a cursor saved after a batch of messages is therefore never ahead of them on disk.
+ */
+public class MessageStore extends SQLiteOpenHelper {
+
+    public interface Callback<T> {
+        void onLoaded(T result);
+    }
+
+    private static final String DB_NAME = "messages.db";
+    private static final int DB_VERSION = 2;
+
+    private static final String TABLE = "messages";
+    private static final String COL_ROOM = "room";
+    private static final String COL_ID = "id";
+    private static final String COL_SENDER = "sender";
+    private static final String COL_PAYLOAD = "payload";
+    private static final String COL_LEGACY = "legacy_content";
+    private static final String COL_TIMESTAMP = "timestamp";
+
+    private static final String[] COLUMNS = {COL_ID, COL_SENDER, COL_PAYLOAD, COL_LEGACY, COL_TIMESTAMP};
+
+    private static final String CURSOR_TABLE = "sync_cursors";
+    private static final String COL_SECONDS = "seconds";
+    private static final String COL_NANOS = "nanos";
+
+    private static MessageStore instance;
+
+    private final ExecutorService io = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public static synchronized MessageStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new MessageStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private MessageStore(Context context) {
+        super(context, DB_NAME, null, DB_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                + COL_ROOM + " TEXT NOT NULL, "
+                + COL_ID + " TEXT NOT NULL, "
+                + COL_SENDER + " TEXT, "
+                + COL_PAYLOAD + " BLOB, "
+                + COL_LEGACY + " TEXT, "
+                + COL_TIMESTAMP + " INTEGER NOT NULL, "
+                + "PRIMARY KEY (" + COL_ROOM + ", " + COL_ID + "))");
+        db.execSQL("CREATE INDEX idx_messages_room_time ON " + TABLE + " (" + COL_ROOM + ", " + COL_TIMESTAMP + ")");
+        db.execSQL("CREATE TABLE " + CURSOR_TABLE + " ("
+                + COL_ROOM + " TEXT PRIMARY KEY, "
+                + COL_SECONDS + " INTEGER NOT NULL, "
+                + COL_NANOS + " INTEGER NOT NULL, "
+                + COL_ID + " TEXT NOT NULL)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Only a cache of Firestore: rebuilding from scratch is always safe
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+        db.execSQL("DROP TABLE IF EXISTS " + CURSOR_TABLE);
+        onCreate(db);
+    }
+
+    /** Stores or replaces messages by document ID. Messages without an ID are skipped. */
+    public void save(String room, List<ChatMessage> messages) {
+        if (messages.isEmpty()) return;
+        final List<ChatMessage> copy = new ArrayList<>(messages);
+        io.execute(() -> {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                ContentValues values = new ContentValues();
+                for (ChatMessage msg : copy) {
+                    if (msg.id == null) continue;
+                    values.clear();
+                    values.put(COL_ROOM, room);
+                    values.put(COL_ID, msg.id);
+                    values.put(COL_SENDER, msg.senderAlias);
+                    values.put(COL_PAYLOAD, msg.payload != null ? msg.payload.toBytes() : null);
+                    values.put(COL_LEGACY, msg.encryptedContent);
+                    values.put(COL_TIMESTAMP, msg.timestamp);
+                    db.insertWithOnConflict(TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        });
+    }
+
+    /** The newest {@code limit} stored messages of the room, oldest first. */
+    public void loadLatest(String room, int limit, Callback<List<ChatMessage>> callback) {
+        query(COL_ROOM + " = ?", new String[]{room}, limit, callback);
+    }
+
+    /** Up to {@code limit} stored messages before the given one in (timestamp, ID) order, oldest first. */
+    public void loadBefore(String room, ChatMessage first, int limit, Callback<List<ChatMessage>> callback) {
+        String timestamp = Long.toString(first.timestamp);
+        query(COL_ROOM + " = ? AND (" + COL_TIMESTAMP + " < ? OR (" + COL_TIMESTAMP + " = ? AND " + COL_ID + " < ?))",
+                new String[]{room, timestamp, timestamp, first.id}, limit, callback);
+    }
+
+    /** Records how far the room is synced. Runs after every save queued before it. */
+    public void saveSyncCursor(String room, SyncCursor cursor) {
+        io.execute(() -> {
+            ContentValues values = new ContentValues();
+            values.put(COL_ROOM, room);
+            values.put(COL_SECONDS, cursor.time.getSeconds());
+            values.put(COL_NANOS, cursor.time.getNanoseconds());
+            values.put(COL_ID, cursor.id);
+            getWritableDatabase().insertWithOnConflict(CURSOR_TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+        });
+    }
+
+    /** The room's sync cursor, or null if the room has never been synced on this device. */
+    public void loadSyncCursor(String room, Callback<SyncCursor> callback) {
+        io.execute(() -> {
+            SyncCursor cursor = null;
+            try (Cursor c = getReadableDatabase().query(CURSOR_TABLE, new String[]{COL_SECONDS, COL_NANOS, COL_ID},
+                    COL_ROOM + " = ?", new String[]{room}, null, null, null)) {
+                if (c.moveToFirst()) {
+                    cursor = new SyncCursor(new Timestamp(c.getLong(0), c.getInt(1)), c.getString(2));
+                }
+            }
+            final SyncCursor result = cursor;
+            mainHandler.post(() -> callback.onLoaded(result));
+        });
+    }
+
+    /** Position in the (server write time, document ID) order Firestore syncs rooms in. */
+    public static final class SyncCursor implements Comparable<SyncCursor> {
+        public final Timestamp time;
+        public final String id;
+
+        public SyncCursor(Timestamp time, String id) {
+            this.time = time;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(SyncCursor other) {
+            int byTime = time.compareTo(other.time);
+            return byTime != 0 ? byTime : id.compareTo(other.id);
+        }
+    }
+
+    // Reads newest-first through the (room, timestamp) index, then flips to display order
+    private void query(String selection, String[] args, int limit, Callback<List<ChatMessage>> callback) {
+        io.execute(() -> {
+            List<ChatMessage> result = new ArrayList<>();
+            try (Cursor cursor = getReadableDatabase().query(TABLE, COLUMNS, selection, args, null, null,
+                    COL_TIMESTAMP + " DESC, " + COL_ID + " DESC", Integer.toString(limit))) {
+                while (cursor.moveToNext()) {
+                    ChatMessage msg = new ChatMessage();
+                    msg.id = cursor.getString(0);
+                    msg.senderAlias = cursor.getString(1);
+                    byte[] payload = cursor.isNull(2) ? null : cursor.getBlob(2);
+                    msg.payload = payload != null ? Blob.fromBytes(payload) : null;
+                    msg.encryptedContent = cursor.getString(3);
+                    msg.timestamp = cursor.getLong(4);
+                    result.add(msg);
+                }
+            }
+            Collections.reverse(result);
+            mainHandler.post(() -> callback.onLoaded(result));
+        });
+    }
+}
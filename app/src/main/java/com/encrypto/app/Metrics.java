@@ -0,0 +1,291 @@
+package com.encrypto.app;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histograms and counters for the crypto and sync paths, for the debug screen and bug reports.
+ *
+ * Timing a stage is {@code long t = Metrics.start(); ...; Metrics.record(Stage.X, t);}. While
+ * recording is off, start() is one volatile read returning 0 and record() ignores a 0 start, so the
+ * instrumented paths pay no clock reads and no writes. Recording is lock-free: each histogram is a
+ * fixed array of atomic buckets, four per power of two of microseconds (about 19% wide), so a
+ * percentile is exact to within one bucket.
+ */
+public final class Metrics {
+
+    public enum Stage {
+        /** Argon2id, including any wait for the memory budget. */
+        DERIVE_KEY("derive_key"),
+        /** AEAD seal or open of one payload. */
+        CIPHER("cipher"),
+        /** Base64 in either direction. */
+        ENCODING("encoding"),
+        /** Text or file digests, all requested algorithms together. */
+        HASH("hash"),
+        /** Outgoing batch from commit() until Firestore acknowledges it. */
+        FIRESTORE_ACK("firestore_ack"),
+        /** Message snapshot delivered until the list has been laid out for drawing. */
+        SNAPSHOT_RENDER("snapshot_render"),
+        /**
+         * Room join in the Realtime Database: reading the seat and capacity, the multi-location update
+         * that takes the seat, and registering its onDisconnect removal.
+         */
+        PRESENCE("presence");
+
+        public final String key;
+
+        Stage(String key) {
+            this.key = key;
+        }
+    }
+
+    public enum Counter {
+        MESSAGES_SENT("messages_sent"),
+        SEND_RETRIES("send_retries"),
+        SEND_FAILURES("send_failures"),
+        DECRYPT_FAILURES("decrypt_failures"),
+        SNAPSHOTS("snapshots"),
+        PRESENCE_UPDATES("presence_updates");
+
+        public final String key;
+
+        Counter(String key) {
+            this.key = key;
+        }
+    }
+
+    private static volatile boolean enabled;
+
+    private static final Histogram[] histograms = new Histogram[Stage.values().length];
+    private static final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+
+    static {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new Histogram();
+        }
+    }
+
+    private Metrics() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Turns recording on or off. What was recorded so far is kept until reset(). */
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    /** Start token for record(); 0 while recording is off. */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0L;
+    }
+
+    public static void record(Stage stage, long startNanos) {
+        if (startNanos == 0L) return;
+        histograms[stage.ordinal()].record(System.nanoTime() - startNanos);
+    }
+
+    /** For durations the caller measures anyway. */
+    public static void recordNanos(Stage stage, long nanos) {
+        if (enabled) {
+            histograms[stage.ordinal()].record(nanos);
+        }
+    }
+
+    public static void increment(Counter counter) {
+        if (enabled) {
+            counters.incrementAndGet(counter.ordinal());
+        }
+    }
+
+    public static Snapshot snapshot(Stage stage) {
+        return histograms[stage.ordinal()].snapshot();
+    }
+
+    public static long count(Counter counter) {
+        return counters.get(counter.ordinal());
+    }
+
+    public static void reset() {
+        for (Histogram histogram : histograms) {
+            histogram.reset();
+        }
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0);
+        }
+    }
+
+    /**
+     * Everything recorded so far, plus the Argon2 pool and admission stats, as one JSON object.
+     * Times are in microseconds; each histogram lists its non-empty buckets as [lower bound, count].
+     */
+    public static String toJson() {
+        StringBuilder json = new StringBuilder(4096);
+        json.append("{\"enabled\":").append(enabled);
+        json.append(",\"cipher_suite\":\"").append(CryptoUtils.getCipherSuite().name()).append('"');
+
+        json.append(",\"stages\":{");
+        for (Stage stage : Stage.values()) {
+            if (stage.ordinal() > 0) json.append(',');
+            json.append('"').append(stage.key).append("\":");
+            snapshot(stage).appendJson(json);
+        }
+        json.append('}');
+
+        json.append(",\"counters\":{");
+        for (Counter counter : Counter.values()) {
+            if (counter.ordinal() > 0) json.append(',');
+            json.append('"').append(counter.key).append("\":").append(count(counter));
+        }
+        json.append('}');
+
+        Argon2Engine.Stats pool = Argon2Engine.getInstance().getStats();
+        json.append(",\"argon2_pool\":{\"allocations\":").append(pool.allocations)
+                .append(",\"reuses\":").append(pool.reuses)
+                .append(",\"bytes_allocated\":").append(pool.bytesAllocated)
+                .append(",\"bytes_reused\":").append(pool.bytesReused)
+                .append(",\"idle_bytes\":").append(pool.idleBytes).append('}');
+
+        DerivationGate.Stats gate = DerivationGate.getInstance().getStats();
+        json.append(",\"argon2_admission\":{\"queue_depth\":").append(gate.queueDepth)
+                .append(",\"peak_queue_depth\":").append(gate.peakQueueDepth)
+                .append(",\"admitted\":").append(gate.admitted)
+                .append(",\"waited\":").append(gate.waited)
+                .append(",\"total_wait_us\":").append(gate.totalWaitNanos / 1000)
+                .append(",\"max_wait_us\":").append(gate.maxWaitNanos / 1000)
+                .append(",\"in_use_kb\":").append(gate.inUseKb)
+                .append(",\"budget_kb\":").append(gate.budgetKb).append('}');
+
+        return json.append('}').toString();
+    }
+
+    /** Point-in-time copy of one histogram. Fields may be off by in-flight records, never torn. */
+    public static final class Snapshot {
+        public final long count;
+        public final long totalMicros;
+        public final long maxMicros;
+        private final long[] buckets;
+
+        Snapshot(long count, long totalMicros, long maxMicros, long[] buckets) {
+            this.count = count;
+            this.totalMicros = totalMicros;
+            this.maxMicros = maxMicros;
+            this.buckets = buckets;
+        }
+
+        public long meanMicros() {
+            return count == 0 ? 0 : totalMicros / count;
+        }
+
+        /** Upper bound of the bucket holding the given quantile (0 to 1), capped at the maximum. */
+        public long percentileMicros(double quantile) {
+            long total = 0;
+            for (long bucket : buckets) {
+                total += bucket;
+            }
+            if (total == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(quantile * total));
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.min(Histogram.lowerBound(i + 1), maxMicros);
+                }
+            }
+            return maxMicros;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "n=%d  p50 %s  p90 %s  p99 %s  max %s", count,
+                    formatMicros(percentileMicros(0.5)), formatMicros(percentileMicros(0.9)),
+                    formatMicros(percentileMicros(0.99)), formatMicros(maxMicros));
+        }
+
+        void appendJson(StringBuilder json) {
+            json.append("{\"count\":").append(count)
+                    .append(",\"mean_us\":").append(meanMicros())
+                    .append(",\"p50_us\":").append(percentileMicros(0.5))
+                    .append(",\"p90_us\":").append(percentileMicros(0.9))
+                    .append(",\"p99_us\":").append(percentileMicros(0.99))
+                    .append(",\"max_us\":").append(maxMicros)
+                    .append(",\"buckets\":[");
+            boolean first = true;
+            for (int i = 0; i < buckets.length; i++) {
+                if (buckets[i] == 0) continue;
+                if (!first) json.append(',');
+                first = false;
+                json.append('[').append(Histogram.lowerBound(i)).append(',').append(buckets[i]).append(']');
+            }
+            json.append("]}");
+        }
+    }
+
+    static String formatMicros(long micros) {
+        if (micros < 1000) return micros + " µs";
+        if (micros < 10_000_000) return String.format(Locale.US, "%.1f ms", micros / 1000.0);
+        return String.format(Locale.US, "%.1f s", micros / 1_000_000.0);
+    }
+
+    static final class Histogram {
+        private static final int SUB_BUCKET_BITS = 2;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int MAX_EXPONENT = 36;  // 2^36 µs is about 19 hours; longer is clamped
+        static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) << SUB_BUCKET_BITS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalMicros = new AtomicLong();
+        private final AtomicLong maxMicros = new AtomicLong();
+
+        void record(long nanos) {
+            long micros = Math.max(0, nanos / 1000);
+            buckets.incrementAndGet(index(micros));
+            count.incrementAndGet();
+            totalMicros.addAndGet(micros);
+            long max;
+            while (micros > (max = maxMicros.get()) && !maxMicros.compareAndSet(max, micros)) {
+                // Lost the race to another record; re-read and retry
+            }
+        }
+
+        Snapshot snapshot() {
+            long[] copy = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                copy[i] = buckets.get(i);
+            }
+            return new Snapshot(count.get(), totalMicros.get(), maxMicros.get(), copy);
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+            count.set(0);
+            totalMicros.set(0);
+            maxMicros.set(0);
+        }
+
+        // Values below SUB_BUCKETS get a bucket each; above that, SUB_BUCKETS per power of two
+        static int index(long micros) {
+            if (micros < SUB_BUCKETS) return (int) micros;
+            int exponent = Math.min(63 - Long.numberOfLeadingZeros(micros), MAX_EXPONENT);
+            if (exponent == MAX_EXPONENT && micros >= (1L << (MAX_EXPONENT + 1))) {
+                return BUCKETS - 1;
+            }
+            int sub = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + sub;
+        }
+
+        static long lowerBound(int index) {
+            if (index < SUB_BUCKETS) return index;
+            int exponent = (index >> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+            long sub = index & (SUB_BUCKETS - 1);
+            return (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+        }
+    }
+}
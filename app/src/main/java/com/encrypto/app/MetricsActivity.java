@@ -0,0 +1,111 @@
+package com.encrypto.app;
+
+import android.content.Intent;
+import android.os.Build;
+import android.os.Bundle;
+import android.widget.Button;
+import android.widget.TextView;
+
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.SwitchCompat;
+import androidx.appcompat.widget.Toolbar;
+
+import org.json.JSONObject;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Debug screen for {@link Metrics}: the latency histograms, counters, startup phases and Argon2
+ * stats, with a JSON dump to attach to bug reports. Opened by long-pressing the guide button on the
+ * main screen.
+ */
+public class MetricsActivity extends AppCompatActivity {
+
+    static final String PREFS = "metrics";
+    static final String KEY_ENABLED = "enabled";
+
+    private TextView tvMetrics;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_metrics);
+
+        Toolbar toolbar = findViewById(R.id.toolbar);
+        setSupportActionBar(toolbar);
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+            getSupportActionBar().setDisplayShowHomeEnabled(true);
+        }
+
+        tvMetrics = findViewById(R.id.tvMetrics);
+        SwitchCompat switchRecording = findViewById(R.id.switchRecording);
+        Button btnShare = findViewById(R.id.btnShareMetrics);
+        Button btnRefresh = findViewById(R.id.btnRefreshMetrics);
+        Button btnReset = findViewById(R.id.btnResetMetrics);
+
+        switchRecording.setChecked(Metrics.isEnabled());
+        switchRecording.setOnCheckedChangeListener((button, checked) -> {
+            Metrics.setEnabled(checked);
+            getSharedPreferences(PREFS, MODE_PRIVATE).edit().putBoolean(KEY_ENABLED, checked).apply();
+            showReport();
+        });
+        btnRefresh.setOnClickListener(v -> showReport());
+        btnReset.setOnClickListener(v -> {
+            Metrics.reset();
+            showReport();
+        });
+        btnShare.setOnClickListener(v -> shareJson());
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        showReport();
+    }
+
+    private void showReport() {
+        StringBuilder report = new StringBuilder();
+        if (!Metrics.isEnabled()) {
+            report.append("Recording is off\n\n");
+        }
+        for (Metrics.Stage stage : Metrics.Stage.values()) {
+            report.append(String.format(Locale.US, "%-16s%s%n", stage.key, Metrics.snapshot(stage)));
+        }
+        report.append('\n');
+        for (Metrics.Counter counter : Metrics.Counter.values()) {
+            report.append(String.format(Locale.US, "%-16s%d%n", counter.key, Metrics.count(counter)));
+        }
+        report.append('\n');
+        for (Map.Entry<String, Long> mark : StartupTrace.getMarks().entrySet()) {
+            report.append(String.format(Locale.US, "%-20s%d ms%n", mark.getKey(), mark.getValue()));
+        }
+        report.append('\n')
+                .append("Cipher suite: ").append(CryptoUtils.getCipherSuite()).append('\n')
+                .append("Argon2: ").append(CryptoUtils.getKdfParams()).append('\n')
+                .append(Argon2Engine.getInstance().getStats()).append('\n')
+                .append(DerivationGate.getInstance().getStats());
+        tvMetrics.setText(report);
+    }
+
+    private void shareJson() {
+        String json = "{\"app_version\":" + JSONObject.quote(BuildConfig.VERSION_NAME)
+                + ",\"device\":" + JSONObject.quote(Build.MANUFACTURER + " " + Build.MODEL)
+                + ",\"sdk\":" + Build.VERSION.SDK_INT
+                + ",\"captured_at\":" + System.currentTimeMillis()
+                + ",\"startup_ms\":" + new JSONObject(StartupTrace.getMarks())
+                + ",\"metrics\":" + Metrics.toJson() + "}";
+        Intent send = new Intent(Intent.ACTION_SEND);
+        send.setType("application/json");
+        send.putExtra(Intent.EXTRA_SUBJECT, "Encrypto diagnostics");
+        send.putExtra(Intent.EXTRA_TEXT, json);
+        startActivity(Intent.createChooser(send, "Share diagnostics"));
+    }
+
+    @Override
+    public boolean onSupportNavigateUp() {
+        onBackPressed();
+        return true;
+    }
+}
@@ -0,0 +1,278 @@
+package com.encrypto.app;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.encrypto.app.models.ChatMessage;
+import com.google.firebase.firestore.Blob;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * Outgoing chat messages, from the moment Send is tapped until Firestore acknowledges them.
+ *
+ * Each message gets its document ID on the client, so the local echo shown straight away and the
+ * copy the snapshot listener delivers later share one ID. Encryption runs on the
+ * {@link CryptoExecutor}; messages whose ciphertext is ready within a short window are written in
+ * one {@link WriteBatch}, so a burst of sends costs a single commit. Offline, a commit simply stays
+ * pending in Firestore's own write queue, which retries it on reconnect, so being offline spends no
+ * attempts. Other transient failures are retried with exponential backoff; anything else, or too
+ * many attempts, leaves the message failed until {@link #retry(String)}. Main thread only.
+ */
+public class OutboundQueue {
+
+    public interface Listener {
+        /** The message went from sending to sent, or to failed and back. */
+        void onStateChanged(ChatMessage message);
+    }
+
+    private static final long FLUSH_DELAY_MS = 100;      // Window in which ready messages share a batch
+    private static final int MAX_BATCH_WRITES = 500;     // Firestore's limit per batch
+    private static final long INITIAL_BACKOFF_MS = 1000;
+    private static final long MAX_BACKOFF_MS = 30_000;
+    private static final int MAX_BACKOFF_SHIFT = 5;      // 1 s << 5 is past MAX_BACKOFF_MS
+    private static final int MAX_ATTEMPTS = 5;
+
+    private final CollectionReference messagesRef;
+    private final CryptoExecutor executor;
+    private final Listener listener;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Random jitter = new Random();
+
+    // Every message not yet acknowledged, by document ID, in send order
+    private final Map<String, ChatMessage> unsent = new HashMap<>();
+    private final List<ChatMessage> unsentOrder = new ArrayList<>();
+    private final Map<String, Callable<byte[]>> encryptors = new HashMap<>();
+    private final Map<String, Integer> attempts = new HashMap<>(); // Counted against MAX_ATTEMPTS
+    private final Map<String, Integer> rounds = new HashMap<>();   // Every retry, for the backoff delay
+    private final Set<String> failed = new HashSet<>();
+    private final Set<ChatMessage> backingOff = new HashSet<>();
+    private int encrypting;
+
+    private final List<ChatMessage> ready = new ArrayList<>();
+    private boolean flushScheduled;
+    private boolean released;
+    private Runnable onDrained;
+
+    private final Runnable flushRunnable = this::flush;
+
+    // Encryptions run under the queue's own owner, so releasing the room's crypto jobs leaves them running
+    public OutboundQueue(CollectionReference messagesRef, CryptoExecutor executor, Listener listener) {
+        this.messagesRef = messagesRef;
+        this.executor = executor;
+        this.listener = listener;
+    }
+
+    /**
+     * Queues a message and returns its local echo straight away. The echo has its final document ID
+     * but no payload until the encryption has run.
+     */
+    public ChatMessage send(String senderAlias, Callable<byte[]> encryption) {
+        ChatMessage message = new ChatMessage(senderAlias, (Blob) null, System.currentTimeMillis());
+        message.id = messagesRef.document().getId();
+        unsent.put(message.id, message);
+        unsentOrder.add(message);
+        encryptors.put(message.id, encryption);
+        encrypt(message);
+        return message;
+    }
+
+    public boolean isSending(ChatMessage message) {
+        return message.id != null && unsent.containsKey(message.id) && !failed.contains(message.id);
+    }
+
+    public boolean isFailed(ChatMessage message) {
+        return message.id != null && failed.contains(message.id);
+    }
+
+    /** Local echoes of every message Firestore has not acknowledged yet, oldest first. */
+    public List<ChatMessage> getUnsent() {
+        return new ArrayList<>(unsentOrder);
+    }
+
+    /** Sends a failed message again, starting a fresh round of attempts. */
+    public void retry(String id) {
+        ChatMessage message = unsent.get(id);
+        if (message == null || !failed.remove(id)) return;
+        attempts.remove(id);
+        rounds.remove(id);
+        listener.onStateChanged(message);
+        if (message.payload == null) {
+            encrypt(message);
+        } else {
+            enqueue(message);
+        }
+    }
+
+    /**
+     * Hands every message to Firestore, which keeps it in its own write queue, and stops reporting.
+     * Messages waiting out a backoff are written at once; messages still being encrypted are written
+     * as soon as their encryption finishes, after which onDrained runs, e.g. to wipe the key they
+     * use. Only messages that had already failed are left unsent.
+     */
+    public void release(Runnable onDrained) {
+        released = true;
+        handler.removeCallbacksAndMessages(null);
+        ready.addAll(backingOff);
+        backingOff.clear();
+        while (!ready.isEmpty()) {
+            flush();
+        }
+        this.onDrained = onDrained;
+        if (encrypting == 0) {
+            drained();
+        }
+    }
+
+    private void drained() {
+        Runnable callback = onDrained;
+        onDrained = null;
+        if (callback != null) callback.run();
+    }
+
+    private void encrypt(ChatMessage message) {
+        encrypting++;
+        executor.submit(this, encryptors.get(message.id), new CryptoExecutor.Callback<byte[]>() {
+            @Override
+            public void onSuccess(byte[] encrypted) {
+                // Stored as a Blob: no Base64 inflation or line breaks in Firestore
+                message.payload = Blob.fromBytes(encrypted);
+                encryptors.remove(message.id);
+                enqueue(message);
+                encrypted();
+            }
+
+            @Override
+            public void onError(Exception e) {
+                if (!released) fail(message);
+                encrypted();
+            }
+        });
+    }
+
+    private void encrypted() {
+        encrypting--;
+        if (released && encrypting == 0) {
+            drained();
+        }
+    }
+
+    private void enqueue(ChatMessage message) {
+        backingOff.remove(message);
+        if (released) {
+            // Written straight away: nothing will flush a batch later
+            ready.add(message);
+            flush();
+            return;
+        }
+        ready.add(message);
+        if (ready.size() >= MAX_BATCH_WRITES) {
+            flush();
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            handler.postDelayed(flushRunnable, FLUSH_DELAY_MS);
+        }
+    }
+
+    private void flush() {
+        handler.removeCallbacks(flushRunnable);
+        flushScheduled = false;
+        if (ready.isEmpty()) return;
+
+        int count = Math.min(ready.size(), MAX_BATCH_WRITES);
+        final List<ChatMessage> batchMessages = new ArrayList<>(ready.subList(0, count));
+        ready.subList(0, count).clear();
+
+        // set() with the client-made ID is idempotent, so a retried batch never duplicates a message
+        WriteBatch batch = messagesRef.getFirestore().batch();
+        for (ChatMessage message : batchMessages) {
+            batch.set(messagesRef.document(message.id), message);
+        }
+        final long commitStart = Metrics.start();
+        batch.commit()
+            .addOnSuccessListener(unused -> {
+                Metrics.record(Metrics.Stage.FIRESTORE_ACK, commitStart);
+                if (released) return;
+                for (ChatMessage message : batchMessages) {
+                    Metrics.increment(Metrics.Counter.MESSAGES_SENT);
+                    unsent.remove(message.id);
+                    unsentOrder.remove(message);
+                    attempts.remove(message.id);
+                    rounds.remove(message.id);
+                    listener.onStateChanged(message);
+                }
+            })
+            .addOnFailureListener(e -> {
+                if (released) return;
+                for (ChatMessage message : batchMessages) {
+                    retryLater(message, e);
+                }
+            });
+
+        if (!ready.isEmpty()) {
+            flushScheduled = true;
+            handler.postDelayed(flushRunnable, FLUSH_DELAY_MS);
+        }
+    }
+
+    private void retryLater(ChatMessage message, Exception e) {
+        Integer previous = attempts.get(message.id);
+        int attempt = previous == null ? 1 : previous + 1;
+        // Connectivity is Firestore's to wait out; if such an error surfaces anyway it costs no attempt
+        boolean counted = !isConnectivity(e);
+        if (!isTransient(e) || (counted && attempt >= MAX_ATTEMPTS)) {
+            fail(message);
+            return;
+        }
+        if (counted) {
+            attempts.put(message.id, attempt);
+        }
+        Integer previousRounds = rounds.get(message.id);
+        int round = previousRounds == null ? 1 : previousRounds + 1;
+        rounds.put(message.id, round);
+        Metrics.increment(Metrics.Counter.SEND_RETRIES);
+        // Half fixed, half random, so clients that lost the connection together do not retry together
+        long delay = Math.min(MAX_BACKOFF_MS, INITIAL_BACKOFF_MS << Math.min(round - 1, MAX_BACKOFF_SHIFT));
+        delay = delay / 2 + (long) (jitter.nextDouble() * (delay / 2));
+        backingOff.add(message);
+        handler.postDelayed(() -> enqueue(message), delay);
+    }
+
+    private void fail(ChatMessage message) {
+        Metrics.increment(Metrics.Counter.SEND_FAILURES);
+        failed.add(message.id);
+        listener.onStateChanged(message);
+    }
+
+    private static boolean isConnectivity(Exception e) {
+        if (!(e instanceof FirebaseFirestoreException)) return false;
+        FirebaseFirestoreException.Code code = ((FirebaseFirestoreException) e).getCode();
+        return code == FirebaseFirestoreException.Code.UNAVAILABLE
+                || code == FirebaseFirestoreException.Code.DEADLINE_EXCEEDED;
+    }
+
+    private static boolean isTransient(Exception e) {
+        if (!(e instanceof FirebaseFirestoreException)) return false;
+        switch (((FirebaseFirestoreException) e).getCode()) {
+            case UNAVAILABLE:
+            case DEADLINE_EXCEEDED:
+            case ABORTED:
+            case RESOURCE_EXHAUSTED:
+            case INTERNAL:
+            case UNKNOWN:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.encrypto.app;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+/**
+ * Multi-core engine for the {@link StreamCrypto} segmented format.
+ *
+ * Once the key is derived, segments are independent, so they are sealed or opened on a fixed worker
+ * pool while the calling thread reads input and writes finished segments back in order. At most
+ * {@code window} segments are in flight, which bounds memory to roughly window x 2 x segment size.
+ * Output is byte-for-byte the same format as StreamCrypto, so either class can read the other's files.
+ * With a single thread there is nothing to overlap, so the sequential StreamCrypto loop runs instead.
+ */
+public final class ParallelStreamCrypto {
+
+    private static ParallelStreamCrypto instance;
+
+    private final ExecutorService workers;
+    private final int threads;
+    private final int window;
+
+    private final ThreadLocal<Cipher> ciphers = new ThreadLocal<Cipher>() {
+        @Override
+        protected Cipher initialValue() {
+            try {
+                return Cipher.getInstance("AES/GCM/NoPadding");
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    public static synchronized ParallelStreamCrypto getInstance() {
+        if (instance == null) {
+            instance = new ParallelStreamCrypto(Runtime.getRuntime().availableProcessors());
+        }
+        return instance;
+    }
+
+    public ParallelStreamCrypto(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Thread count must be positive");
+        }
+        this.workers = Executors.newFixedThreadPool(threads, new WorkerThreadFactory());
+        this.threads = threads;
+        this.window = 2 * threads;
+    }
+
+    public void encrypt(InputStream in, OutputStream out, String password) throws IOException, GeneralSecurityException {
+        encrypt(in, out, password, StreamCrypto.DEFAULT_SEGMENT_SIZE);
+    }
+
+    public void encrypt(InputStream in, OutputStream out, String password, int segmentSize)
+            throws IOException, GeneralSecurityException {
+        if (in == null || out == null || password == null) {
+            throw new IllegalArgumentException("Streams and password must not be null");
+        }
+        StreamCrypto.Header header = StreamCrypto.Header.create(segmentSize);
+        encrypt(in, out, header, header.deriveKey(password));
+    }
+
+    // Key already derived from the header salt; split out so benchmarks can skip Argon2
+    void encrypt(InputStream in, OutputStream out, StreamCrypto.Header header, SecretKey key)
+            throws IOException, GeneralSecurityException {
+        if (threads == 1) {
+            StreamCrypto.encrypt(in, out, header, key);
+            return;
+        }
+        out.write(header.bytes);
+        run(in, out, header, key, true);
+    }
+
+    public void decrypt(InputStream in, OutputStream out, String password) throws IOException, GeneralSecurityException {
+        if (in == null || out == null || password == null) {
+            throw new IllegalArgumentException("Streams and password must not be null");
+        }
+        StreamCrypto.Header header = StreamCrypto.Header.read(in);
+        decrypt(in, out, header, header.deriveKey(password));
+    }
+
+    void decrypt(InputStream in, OutputStream out, StreamCrypto.Header header, SecretKey key)
+            throws IOException, GeneralSecurityException {
+        if (threads == 1) {
+            StreamCrypto.decrypt(in, out, header, key);
+            return;
+        }
+        run(in, out, header, key, false);
+    }
+
+    /** Stops the worker threads. Only for instances created with the public constructor. */
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    private void run(InputStream in, OutputStream out, StreamCrypto.Header header, SecretKey key, boolean encrypting)
+            throws IOException, GeneralSecurityException {
+        int readSize = encrypting ? header.segmentSize : header.segmentSize + StreamCrypto.TAG_LENGTH;
+
+        // window segments in flight plus the one being read ahead. All of them are wiped at the end,
+        // wherever they are: in the pool, with a worker, or being written out when an error hit.
+        Segment[] segments = new Segment[window + 1];
+        ArrayDeque<Segment> pool = new ArrayDeque<>(segments.length);
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(header.segmentSize + StreamCrypto.TAG_LENGTH);
+            pool.add(segments[i]);
+        }
+        ArrayDeque<Future<Segment>> inFlight = new ArrayDeque<>(window);
+
+        try {
+            Segment current = pool.poll();
+            current.length = StreamCrypto.readFully(in, current.in, readSize);
+            long index = 0;
+            while (true) {
+                if (!encrypting && current.length < StreamCrypto.TAG_LENGTH) {
+                    throw new IOException("Truncated encrypted stream");
+                }
+
+                // Read one segment ahead so the final one can be flagged
+                Segment next = null;
+                boolean last = current.length < readSize;
+                if (!last) {
+                    if (pool.isEmpty() || inFlight.size() >= window) {
+                        writeNext(inFlight, pool, out);
+                    }
+                    next = pool.poll();
+                    next.length = StreamCrypto.readFully(in, next.in, readSize);
+                    last = next.length == 0;
+                }
+
+                current.index = index++;
+                current.last = last;
+                inFlight.add(workers.submit(new SegmentTask(current, header, key, encrypting)));
+
+                if (last) {
+                    break;
+                }
+                current = next;
+            }
+
+            while (!inFlight.isEmpty()) {
+                writeNext(inFlight, pool, out);
+            }
+            out.flush();
+        } finally {
+            for (Future<Segment> pending : inFlight) {
+                pending.cancel(true);
+            }
+            for (Segment segment : segments) {
+                segment.wipe();
+            }
+        }
+    }
+
+    // Writes the oldest in-flight segment, preserving input order
+    private static void writeNext(ArrayDeque<Future<Segment>> inFlight, ArrayDeque<Segment> pool, OutputStream out)
+            throws IOException, GeneralSecurityException {
+        Segment done;
+        try {
+            done = inFlight.poll().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof GeneralSecurityException) throw (GeneralSecurityException) cause;
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IllegalStateException(cause);
+        }
+        out.write(done.out, 0, done.outLength);
+        pool.add(done);
+    }
+
+    private final class SegmentTask implements Callable<Segment> {
+        private final Segment segment;
+        private final StreamCrypto.Header header;
+        private final SecretKey key;
+        private final boolean encrypting;
+
+        SegmentTask(Segment segment, StreamCrypto.Header header, SecretKey key, boolean encrypting) {
+            this.segment = segment;
+            this.header = header;
+            this.key = key;
+            this.encrypting = encrypting;
+        }
+
+        @Override
+        public Segment call() throws GeneralSecurityException {
+            Cipher cipher = ciphers.get();
+            // Cancellation does not stop a running cipher; holding the segment makes wipe() wait for it
+            synchronized (segment) {
+                if (segment.wiped) {
+                    throw new CancellationException();
+                }
+                if (encrypting) {
+                    segment.outLength = StreamCrypto.sealSegment(cipher, key, header, segment.index, segment.last,
+                            segment.in, segment.length, segment.out);
+                } else {
+                    segment.outLength = StreamCrypto.openSegment(cipher, key, header, segment.index, segment.last,
+                            segment.in, segment.length, segment.out);
+                }
+            }
+            return segment;
+        }
+    }
+
+    private static final class Segment {
+        final byte[] in;
+        final byte[] out;
+        int length;
+        int outLength;
+        long index;
+        boolean last;
+        boolean wiped; // Guarded by this; a task that starts after the wipe leaves the buffers alone
+
+        Segment(int capacity) {
+            in = new byte[capacity];
+            out = new byte[capacity];
+        }
+
+        synchronized void wipe() {
+            wiped = true;
+            Arrays.fill(in, (byte) 0);
+            Arrays.fill(out, (byte) 0);
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "segment-crypto-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.encrypto.app;
+
+import android.util.LruCache;
+
+import com.encrypto.app.models.ChatMessage;
+
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * In-memory LRU of decrypted chat messages, bounded by an approximate byte budget.
+ *
+ * Lets a row show its plaintext again after scrolling or a new snapshot without another decrypt.
+ * Contents never leave memory and are wiped with {@link #clear()} when the room is left.
+ */
+public class PlaintextCache {
+
+    public static final int DEFAULT_MAX_BYTES = 512 * 1024;
+
+    private final LruCache<String, String> entries;
+
+    public PlaintextCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    public PlaintextCache(int maxBytes) {
+        entries = new LruCache<String, String>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, String plaintext) {
+                // Java strings are UTF-16; count both key and value against the budget
+                return 2 * (key.length() + plaintext.length());
+            }
+        };
+    }
+
+    public String get(ChatMessage message) {
+        return entries.get(keyFor(message));
+    }
+
+    public void put(ChatMessage message, String plaintext) {
+        entries.put(keyFor(message), plaintext);
+    }
+
+    public void clear() {
+        entries.evictAll();
+    }
+
+    // Prefer the Firestore document ID; fall back to a digest of the ciphertext
+    private static String keyFor(ChatMessage message) {
+        if (message.id != null) {
+            return message.id;
+        }
+        try {
+            if (message.payload != null) {
+                return "sha256:" + CryptoUtils.hash(message.payload.toBytes(), "SHA-256");
+            }
+            return "sha256:" + CryptoUtils.hash(String.valueOf(message.encryptedContent), "SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
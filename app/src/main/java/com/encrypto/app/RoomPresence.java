@@ -0,0 +1,325 @@
+package com.encrypto.app;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.ServerValue;
+import com.google.firebase.database.ValueEventListener;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Room presence on the Realtime Database.
+ *
+ * Layout: presence/{room}/members/{uid} = {alias, joinedAt}, presence/{room}/count, a single
+ * aggregated counter, and presence/{room}/capacity, set by whoever creates the room. Members are
+ * keyed by their auth uid, so joining is idempotent: a member already present is not counted again.
+ * The seat is taken first, with one atomic update that adds the member and increments the counter;
+ * the database rules only accept it while the counter stays within the capacity and the counter
+ * moves by exactly one together with the member, so two people can never both take the last seat.
+ * Only once that write is committed is the inverse update registered with onDisconnect, and the
+ * join is reported after the server has confirmed it, so the server removes the member even when
+ * the process is killed. Watchers read only the counter: one value per change instead of the whole
+ * participant list.
+ */
+public class RoomPresence {
+
+    public interface CountListener {
+        void onCountChanged(long count);
+    }
+
+    /** Called on the main thread; again after every reconnect, since the seat has to be re-taken. */
+    public interface JoinListener {
+        void onJoined(long capacity);
+
+        void onRoomFull(long capacity);
+
+        void onJoinFailed(Exception e);
+    }
+
+    public static final int DEFAULT_CAPACITY = 10;
+    public static final int MIN_CAPACITY = 2;
+    public static final int MAX_CAPACITY = 50;
+
+    private static final String TAG = "RoomPresence";
+    private static final String ROOT = "presence";
+
+    private final DatabaseReference roomRef;
+    private final DatabaseReference connectedRef;
+    @Nullable private final String memberKey;
+    @Nullable private final DatabaseReference memberRef;
+    private final String alias;
+    private final int capacityForNewRoom;
+
+    private ValueEventListener connectionListener;
+    private ValueEventListener memberListener;
+    private ValueEventListener countListener;
+    private boolean connected;
+    private boolean seating; // A join is in flight
+    private boolean seated;  // Our member entry and increment were committed
+    private boolean armed;   // Server-side removal registered for the current connection
+    private boolean joined;  // Seat taken and its removal registered
+    private long lastJoinNanos;
+
+    /**
+     * memberKey is the signed-in user's auth uid, the only member entry the rules let this client
+     * write. capacityForNewRoom only applies if this member is the one creating the room.
+     */
+    public RoomPresence(FirebaseDatabase database, String roomName, @Nullable String memberKey, String alias,
+                        int capacityForNewRoom) {
+        if (capacityForNewRoom < MIN_CAPACITY || capacityForNewRoom > MAX_CAPACITY) {
+            throw new IllegalArgumentException("Capacity must be between " + MIN_CAPACITY + " and " + MAX_CAPACITY);
+        }
+        this.roomRef = database.getReference(ROOT).child(toKey(roomName));
+        this.connectedRef = database.getReference(".info/connected");
+        this.memberKey = memberKey;
+        this.memberRef = memberKey != null ? roomRef.child("members").child(memberKey) : null;
+        this.alias = alias;
+        this.capacityForNewRoom = capacityForNewRoom;
+    }
+
+    // Realtime Database keys may not contain . # $ [ ]
+    private static String toKey(String roomName) {
+        return roomName.replaceAll("[.#$\\[\\]]", "_");
+    }
+
+    /**
+     * Takes a seat and keeps it across reconnects. Every connection registers its own server-side
+     * removal; if an old connection's removal runs after a quick reconnect, the seat is taken again.
+     */
+    public void join(JoinListener listener) {
+        if (connectionListener != null) return;
+        if (memberRef == null) {
+            listener.onJoinFailed(new IllegalStateException("Sign in to join a room"));
+            return;
+        }
+        memberListener = memberRef.addValueEventListener(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                if (snapshot.exists() || !seated) return;
+                // Removed by the server, e.g. by the removal of a connection that had already been replaced
+                seated = false;
+                joined = false;
+                if (connected) {
+                    takeSeat(listener);
+                }
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+            }
+        });
+        connectionListener = connectedRef.addValueEventListener(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                Boolean value = snapshot.getValue(Boolean.class);
+                connected = value != null && value;
+                if (!connected) {
+                    // The server runs the onDisconnect removal for the lost connection
+                    armed = false;
+                    joined = false;
+                    return;
+                }
+                takeSeat(listener);
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+                listener.onJoinFailed(error.toException());
+            }
+        });
+    }
+
+    /**
+     * Wall-clock time of the last join in milliseconds, as recorded for {@link Metrics.Stage#PRESENCE}:
+     * the reads, the seat update (skipped when already seated) and the onDisconnect registration.
+     */
+    public long getLastJoinMillis() {
+        return lastJoinNanos / 1_000_000L;
+    }
+
+    // Reads our member entry and the capacity, two small values, in one round trip
+    private void takeSeat(JoinListener listener) {
+        if (seating || joined) return;
+        seating = true;
+        final long start = System.nanoTime();
+        Task<DataSnapshot> member = memberRef.get();
+        Task<DataSnapshot> capacity = roomRef.child("capacity").get();
+        Tasks.whenAllComplete(member, capacity).addOnCompleteListener(done -> {
+            if (connectionListener == null) {
+                seating = false;
+                return;
+            }
+            if (!member.isSuccessful() || !capacity.isSuccessful()) {
+                seating = false;
+                // Offline: the next connection runs the join again
+                if (connected) {
+                    listener.onJoinFailed(member.isSuccessful() ? capacity.getException() : member.getException());
+                }
+                return;
+            }
+            Long stored = capacity.getResult().getValue(Long.class);
+            if (member.getResult().exists()) {
+                // Already counted, e.g. reconnected before the server noticed the old connection was gone
+                seated = true;
+                armRemoval(listener, capacityOf(stored), start);
+            } else {
+                occupy(listener, stored, start);
+            }
+        });
+    }
+
+    /** Adds the member and increments the counter in one write; the rules enforce the capacity. */
+    private void occupy(JoinListener listener, @Nullable Long storedCapacity, long start) {
+        final long roomCapacity = capacityOf(storedCapacity);
+        Map<String, Object> update = new HashMap<>();
+        update.put("members/" + memberKey, memberEntry());
+        update.put("count", ServerValue.increment(1));
+        if (storedCapacity == null) {
+            update.put("capacity", roomCapacity);
+        }
+        roomRef.updateChildren(update, (error, ref) -> {
+            if (error == null) {
+                seated = true;
+                if (connectionListener == null) {
+                    // Left while the write was in flight
+                    seating = false;
+                    giveBack();
+                    return;
+                }
+                armRemoval(listener, roomCapacity, start);
+                return;
+            }
+            if (error.getCode() != DatabaseError.PERMISSION_DENIED) {
+                seating = false;
+                if (connectionListener != null) listener.onJoinFailed(error.toException());
+                return;
+            }
+            // Denied: either the room is full or another member created it with a different capacity
+            Task<DataSnapshot> count = roomRef.child("count").get();
+            Task<DataSnapshot> capacity = roomRef.child("capacity").get();
+            Tasks.whenAllComplete(count, capacity).addOnCompleteListener(done -> {
+                if (connectionListener == null) {
+                    seating = false;
+                    return;
+                }
+                Long current = count.isSuccessful() ? count.getResult().getValue(Long.class) : null;
+                Long stored = capacity.isSuccessful() ? capacity.getResult().getValue(Long.class) : null;
+                if (current != null && stored != null && current >= stored) {
+                    seating = false;
+                    listener.onRoomFull(stored);
+                } else if (storedCapacity == null && stored != null) {
+                    occupy(listener, stored, start);
+                } else {
+                    seating = false;
+                    listener.onJoinFailed(error.toException());
+                }
+            });
+        });
+    }
+
+    // Registered only after the seat is committed, and the join is reported once the server accepted it
+    private void armRemoval(JoinListener listener, long roomCapacity, long start) {
+        if (armed) {
+            roomRef.onDisconnect().cancel();
+        }
+        roomRef.onDisconnect().updateChildren(leaveUpdate(), (error, ref) -> {
+            seating = false;
+            lastJoinNanos = System.nanoTime() - start;
+            Metrics.recordNanos(Metrics.Stage.PRESENCE, lastJoinNanos);
+            Log.d(TAG, "Join took " + getLastJoinMillis() + " ms");
+            if (connectionListener == null) {
+                // Left while the registration was in flight
+                roomRef.onDisconnect().cancel();
+                giveBack();
+                return;
+            }
+            if (error != null) {
+                // Without a server-side removal the seat could outlive this process: give it back
+                giveBack();
+                listener.onJoinFailed(error.toException());
+                return;
+            }
+            armed = true;
+            joined = true;
+            listener.onJoined(roomCapacity);
+        });
+    }
+
+    private long capacityOf(@Nullable Long stored) {
+        return stored != null ? stored : capacityForNewRoom;
+    }
+
+    /** Removes the member now and cancels the pending server-side removal. */
+    public void leave() {
+        if (connectionListener != null) {
+            connectedRef.removeEventListener(connectionListener);
+            connectionListener = null;
+        }
+        if (memberListener != null) {
+            memberRef.removeEventListener(memberListener);
+            memberListener = null;
+        }
+        stopWatching();
+        if (armed) {
+            roomRef.onDisconnect().cancel();
+        }
+        giveBack();
+        armed = false;
+        joined = false;
+        connected = false;
+    }
+
+    private void giveBack() {
+        if (!seated) return;
+        seated = false;
+        roomRef.updateChildren(leaveUpdate());
+    }
+
+    /** Streams the room's participant count; one small value per change. */
+    public void watchCount(CountListener listener) {
+        stopWatching();
+        countListener = roomRef.child("count").addValueEventListener(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                Metrics.increment(Metrics.Counter.PRESENCE_UPDATES);
+                Long count = snapshot.getValue(Long.class);
+                listener.onCountChanged(count != null ? Math.max(0, count) : 0);
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+            }
+        });
+    }
+
+    private void stopWatching() {
+        if (countListener != null) {
+            roomRef.child("count").removeEventListener(countListener);
+            countListener = null;
+        }
+    }
+
+    private Map<String, Object> memberEntry() {
+        Map<String, Object> member = new HashMap<>();
+        member.put("alias", alias);
+        member.put("joinedAt", ServerValue.TIMESTAMP);
+        return member;
+    }
+
+    private Map<String, Object> leaveUpdate() {
+        Map<String, Object> update = new HashMap<>();
+        update.put("members/" + memberKey, null);
+        update.put("count", ServerValue.increment(-1));
+        return update;
+    }
+}
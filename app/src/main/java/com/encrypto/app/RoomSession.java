@@ -0,0 +1,695 @@
+package com.encrypto.app;
+
+import android.content.Context;
+import android.util.Base64;
+
+import androidx.annotation.Nullable;
+
+import com.encrypto.app.models.ChatMessage;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.Source;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * One visit to a chat room, independent of the screen showing it.
+ *
+ * Owns the presence seat, the session key, the message list and its plaintexts, the outbound queue,
+ * the decrypt jobs and every Firestore and Realtime Database listener. A rotation only swaps the
+ * {@link Listener}: nothing is joined, derived, fetched or decrypted twice. Every registration is
+ * kept and removed in {@link #close()}, which runs when the user leaves the room for good.
+ * Main thread only.
+ */
+public class RoomSession {
+
+    public interface Listener {
+        /** The seat is taken. Repeated to a newly attached listener. */
+        void onJoined(String alias);
+
+        /** Terminal: the room has no free seat. Repeated to a newly attached listener. */
+        void onRoomFull(long capacity);
+
+        /** Terminal: the join failed. Repeated to a newly attached listener. */
+        void onJoinFailed(Exception e);
+
+        void onUserCountChanged(long count, long capacity);
+
+        /**
+         * Messages arrived from the server or the list was reloaded after a sync; newest is true when
+         * the list grew. renderStart is a {@link Metrics} token for the snapshot-to-render delay, or
+         * 0 when the update did not come from a snapshot.
+         */
+        void onLiveMessages(boolean newest, long renderStart);
+
+        /**
+         * An older page is ready. Call {@link #prependOlder(List)} with it, so the screen can keep the
+         * row the user is looking at in place.
+         */
+        void onOlderPage(List<ChatMessage> page);
+
+        /** The message's row needs to be bound again: decrypted, failed, sent or not sent. */
+        void onMessageChanged(ChatMessage message);
+
+        void onError(String message);
+    }
+
+    private enum JoinState { JOINING, JOINED, FULL, FAILED }
+
+    public static final int PAGE_SIZE = 50;         // Live window, older-page and backfill page size
+    private static final int MAX_HISTORY_PAGES = 4; // Older pages kept before trimming
+    private static final String UPDATED_AT = "updatedAt"; // Server write time, see ChatMessage
+    private static final String TIMESTAMP = "timestamp";  // Sender time, the only order legacy messages have
+
+    private final String roomName;
+    private final String alias;
+    private final String roomPassword;
+    private final FirebaseFirestore db;
+    private final CollectionReference messagesRef;
+    private final CryptoExecutor cryptoExecutor;
+    private final MessageStore messageStore;
+    private final RoomPresence presence;
+    private final PlaintextCache plaintextCache = new PlaintextCache();
+    private final MessageList messageList = new MessageList(PAGE_SIZE);
+    private final OutboundQueue outbound;
+    private final DecryptScheduler decryptScheduler;
+
+    // Messages decrypted on request, one row at a time
+    private final Set<ChatMessage> decrypting = new HashSet<>();
+
+    private final List<ListenerRegistration> registrations = new ArrayList<>();
+
+    @Nullable private Listener listener;
+    private JoinState joinState = JoinState.JOINING;
+    private Exception joinError;
+    private long capacity;
+    private long userCount = -1;
+    private CryptoUtils.SessionKey sessionKey; // Argon2id runs once per join, not per message
+
+    private boolean loadingOlder;
+    private boolean hasMoreOlder = true;
+
+    // Everything up to the cursor is in the store; null until the first server snapshot of a new room
+    @Nullable private MessageStore.SyncCursor syncCursor;
+    private boolean backfilling;
+    private boolean listening;
+    // Both are also read by the key derivation, which can finish after close() has cancelled it
+    private volatile boolean closed;
+    @Nullable private volatile CryptoUtils.SessionKey derivedKey;
+
+    public RoomSession(Context context, String roomName, String alias, String roomPassword, int capacityForNewRoom) {
+        this.roomName = roomName;
+        this.alias = alias;
+        this.roomPassword = roomPassword;
+        this.capacity = capacityForNewRoom;
+        db = FirebaseFirestore.getInstance();
+        messagesRef = db.collection("rooms").document(roomName).collection("messages");
+        cryptoExecutor = CryptoExecutor.getInstance();
+        messageStore = MessageStore.getInstance(context);
+        presence = new RoomPresence(FirebaseDatabase.getInstance(), roomName, FirebaseAuth.getInstance().getUid(), alias,
+            capacityForNewRoom);
+
+        outbound = new OutboundQueue(messagesRef, cryptoExecutor, message -> {
+            showUnsent();
+            notifyChanged(messageList.findById(message.id));
+        });
+
+        decryptScheduler = new DecryptScheduler(this, cryptoExecutor, messageList, plaintextCache,
+            msg -> {
+                final CryptoUtils.SessionKey key = sessionKey;
+                return () -> decryptMessage(msg, key);
+            },
+            new DecryptScheduler.Listener() {
+                @Override
+                public void onDecrypted(ChatMessage message) {
+                    notifyChanged(message);
+                }
+
+                @Override
+                public void onFailed(ChatMessage message, Exception e) {
+                    Metrics.increment(Metrics.Counter.DECRYPT_FAILURES);
+                    notifyChanged(message);
+                }
+            });
+
+        join();
+    }
+
+    /**
+     * Attaches the screen, replaying the join outcome and the user count. The message list is not
+     * replayed; the screen binds {@link #getMessages()} directly.
+     */
+    public void attach(Listener listener) {
+        this.listener = listener;
+        switch (joinState) {
+            case JOINED:
+                listener.onJoined(alias);
+                if (userCount >= 0) {
+                    listener.onUserCountChanged(userCount, capacity);
+                }
+                break;
+            case FULL:
+                listener.onRoomFull(capacity);
+                break;
+            case FAILED:
+                listener.onJoinFailed(joinError);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /** Detaches the screen; events until the next attach only update the state kept here. */
+    public void detach(Listener listener) {
+        if (this.listener == listener) {
+            this.listener = null;
+        }
+    }
+
+    public String getRoomName() {
+        return roomName;
+    }
+
+    public MessageList getMessages() {
+        return messageList;
+    }
+
+    @Nullable
+    public String getPlaintext(ChatMessage message) {
+        return plaintextCache.get(message);
+    }
+
+    public boolean hasSessionKey() {
+        return sessionKey != null;
+    }
+
+    public boolean isSending(ChatMessage message) {
+        return outbound.isSending(message);
+    }
+
+    public boolean isFailed(ChatMessage message) {
+        return outbound.isFailed(message);
+    }
+
+    public void retry(ChatMessage message) {
+        outbound.retry(message.id);
+    }
+
+    /** True while the message waits for the room decryption or for a single-row decrypt. */
+    public boolean isDecrypting(ChatMessage message) {
+        return decrypting.contains(message) || decryptScheduler.isPending(message);
+    }
+
+    public boolean isRoomDecryptionEnabled() {
+        return decryptScheduler.isEnabled();
+    }
+
+    /** Starts decrypting the whole room around the given rows; false while the key is still being derived. */
+    public boolean startRoomDecryption(int firstVisible, int lastVisible) {
+        if (sessionKey == null) return false;
+        decryptScheduler.start();
+        decryptScheduler.setVisibleRange(firstVisible, lastVisible);
+        return true;
+    }
+
+    public void stopRoomDecryption() {
+        decryptScheduler.stop();
+    }
+
+    public void setVisibleRange(int firstVisible, int lastVisible) {
+        decryptScheduler.setVisibleRange(firstVisible, lastVisible);
+    }
+
+    /** Decrypts one message on request. The row is told through onMessageChanged either way. */
+    public void decrypt(ChatMessage message) {
+        if (!decrypting.add(message)) return;
+        final CryptoUtils.SessionKey key = sessionKey;
+        cryptoExecutor.submit(this, () -> decryptMessage(message, key), new CryptoExecutor.Callback<String>() {
+            @Override
+            public void onSuccess(String plaintext) {
+                decrypting.remove(message);
+                plaintextCache.put(message, plaintext);
+                notifyChanged(message);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                decrypting.remove(message);
+                Metrics.increment(Metrics.Counter.DECRYPT_FAILURES);
+                notifyChanged(message);
+                if (listener != null) listener.onError("Decryption Failed");
+            }
+        });
+    }
+
+    /**
+     * Queues a message and adds its local echo to the end of the list. Returns false while the key
+     * is still being derived.
+     */
+    public boolean send(String text) {
+        if (sessionKey == null) return false;
+        // Shown right away as a local echo; encryption and the write happen in the background
+        final CryptoUtils.SessionKey key = sessionKey;
+        ChatMessage echo = outbound.send(alias, () -> CryptoUtils.encryptBytes(text.getBytes(StandardCharsets.UTF_8), key));
+        plaintextCache.put(echo, text);
+        messageList.addPending(echo);
+        return true;
+    }
+
+    /** Loads the page before the oldest loaded message: from the local store first, then Firestore. */
+    public void loadOlder() {
+        ChatMessage oldest = messageList.oldest();
+        if (loadingOlder || !hasMoreOlder || oldest == null) return;
+        loadingOlder = true;
+
+        // The store holds a contiguous run up to the newest message, so it is asked first
+        messageStore.loadBefore(roomName, oldest, PAGE_SIZE, stored -> {
+            if (closed) return;
+            if (stored.isEmpty()) {
+                fetchOlder(oldest);
+            } else {
+                loadingOlder = false;
+                deliverOlder(stored);
+            }
+        });
+    }
+
+    /**
+     * Adds an older page in front of the list; see {@link Listener#onOlderPage(List)}. Returns how
+     * many rows were inserted above the previously first one.
+     */
+    public int prependOlder(List<ChatMessage> page) {
+        return messageList.prependOlder(page);
+    }
+
+    // Back near the live end: drop history pages that are far off-screen so memory stays bounded
+    public void trimHistory() {
+        int excess = messageList.historySize() - MAX_HISTORY_PAGES * PAGE_SIZE;
+        if (excess > 0 && !loadingOlder) {
+            messageList.trimOldest(excess);
+            hasMoreOlder = true;
+        }
+    }
+
+    /**
+     * Leaves the room: removes every listener, hands every unsent message to Firestore, drops pending
+     * decryptions and wipes the key and plaintexts. The session cannot be used afterwards.
+     */
+    public void close() {
+        if (closed) return;
+        closed = true;
+        listener = null;
+        for (ListenerRegistration registration : registrations) {
+            registration.remove();
+        }
+        registrations.clear();
+        // Every sent message still goes to Firestore's own write queue, including those being
+        // encrypted; the key they use is wiped once the last of them is sealed
+        final CryptoUtils.SessionKey key = sessionKey;
+        sessionKey = null;
+        outbound.release(() -> {
+            if (key != null) key.destroy();
+        });
+        decryptScheduler.stop();
+        cryptoExecutor.release(this);
+        decrypting.clear();
+        plaintextCache.clear();
+        // Leave right away; if the process dies instead, the server-side onDisconnect does it
+        presence.leave();
+        // A derivation finishing now either sees closed or left its key here
+        CryptoUtils.SessionKey derived = derivedKey;
+        if (derived != null) {
+            derived.destroy();
+            derivedKey = null;
+        }
+    }
+
+    private void join() {
+        // One write takes the seat within the capacity; the join is reported once its removal is registered
+        presence.join(new RoomPresence.JoinListener() {
+            @Override
+            public void onJoined(long roomCapacity) {
+                if (closed) return;
+                capacity = roomCapacity;
+                if (joinState == JoinState.JOINED) return; // Seat re-taken after a reconnect
+                joinState = JoinState.JOINED;
+                loadSessionKey();
+                loadStoredMessages();
+                presence.watchCount(current -> {
+                    userCount = current;
+                    if (listener != null) listener.onUserCountChanged(current, capacity);
+                });
+                if (listener != null) listener.onJoined(alias);
+            }
+
+            @Override
+            public void onRoomFull(long roomCapacity) {
+                if (closed) return;
+                capacity = roomCapacity;
+                joinState = JoinState.FULL;
+                if (listener != null) listener.onRoomFull(roomCapacity);
+            }
+
+            @Override
+            public void onJoinFailed(Exception e) {
+                if (closed) return;
+                joinState = JoinState.FAILED;
+                joinError = e;
+                if (listener != null) listener.onJoinFailed(e);
+            }
+        });
+    }
+
+    private void loadSessionKey() {
+        // The room salt and Argon2 cost live on the room document; the first member to join creates
+        // them with their own calibrated settings, which never exceed the portable memory ceiling.
+        // Rooms created before that carry no cost and use the legacy one. A cost this device cannot
+        // afford fails with a clear error from DerivationGate instead of running out of memory.
+        DocumentReference roomRef = db.collection("rooms").document(roomName);
+        db.runTransaction(transaction -> {
+                DocumentSnapshot room = transaction.get(roomRef);
+                String salt = room.getString("kdfSalt");
+                String params = room.getString("kdfParams");
+                if (salt == null) {
+                    salt = Base64.encodeToString(CryptoUtils.newRoomSalt(), Base64.NO_WRAP);
+                    params = Base64.encodeToString(CryptoUtils.getKdfParams().encode(), Base64.NO_WRAP);
+                    Map<String, Object> update = new HashMap<>();
+                    update.put("kdfSalt", salt);
+                    update.put("kdfParams", params);
+                    transaction.set(roomRef, update, SetOptions.merge());
+                }
+                return new String[]{salt, params};
+            })
+            .addOnSuccessListener(room -> {
+                if (closed) return;
+                cryptoExecutor.submit(this,
+                    () -> {
+                        KdfParams params = room[1] != null
+                                ? KdfParams.decode(Base64.decode(room[1], Base64.NO_WRAP))
+                                : KdfParams.LEGACY;
+                        CryptoUtils.SessionKey key = CryptoUtils.deriveSessionKey(roomPassword,
+                                Base64.decode(room[0], Base64.NO_WRAP), params);
+                        // Closed meanwhile: the job is cancelled and its result would never be delivered
+                        derivedKey = key;
+                        if (closed) {
+                            key.destroy();
+                        }
+                        return key;
+                    },
+                    new CryptoExecutor.Callback<CryptoUtils.SessionKey>() {
+                        @Override
+                        public void onSuccess(CryptoUtils.SessionKey key) {
+                            derivedKey = null;
+                            if (closed) {
+                                key.destroy();
+                                return;
+                            }
+                            sessionKey = key;
+                        }
+
+                        @Override
+                        public void onError(Exception e) {
+                            if (listener != null) listener.onError("Key setup failed: " + e.getMessage());
+                        }
+                    });
+            })
+            .addOnFailureListener(e -> {
+                if (!closed && listener != null) listener.onError("Key setup failed: " + e.getMessage());
+            });
+    }
+
+    // Shows the stored history at once, then fetches what was written since the sync cursor and
+    // goes live. A room never opened on this device starts from the latest page instead.
+    private void loadStoredMessages() {
+        messageStore.loadLatest(roomName, PAGE_SIZE, stored -> {
+            if (closed) return;
+            messageList.prependOlder(stored);
+            if (!stored.isEmpty() && listener != null) {
+                listener.onLiveMessages(true, 0L);
+            }
+            messageStore.loadSyncCursor(roomName, cursor -> {
+                if (closed) return;
+                syncCursor = cursor;
+                if (stored.isEmpty()) {
+                    loadingOlder = true;
+                    fetchOlder(null);
+                }
+                if (cursor != null) {
+                    backfill(false);
+                } else {
+                    listenForMessages();
+                }
+                if (!stored.isEmpty()) {
+                    backfillLegacy(LegacyMessages.backfillStart(stored.get(stored.size() - 1)), null, false);
+                }
+            });
+        });
+    }
+
+    // Pages through every document written after the cursor, in server write order. Only rows
+    // already on screen are updated in place; if new messages arrived, the screen is reloaded
+    // from the store afterwards, so an absence of any length never holds more than a page in memory.
+    private void backfill(boolean addedMessages) {
+        backfilling = true;
+        messagesRef.orderBy(UPDATED_AT).orderBy(FieldPath.documentId())
+            .startAfter(syncCursor.time, syncCursor.id)
+            .limit(PAGE_SIZE)
+            .get(Source.SERVER)
+            .addOnSuccessListener(snapshot -> {
+                if (closed) return;
+                List<DocumentSnapshot> documents = snapshot.getDocuments();
+                boolean added = addedMessages;
+                List<ChatMessage> page = new ArrayList<>();
+                for (DocumentSnapshot document : documents) {
+                    ChatMessage msg = document.toObject(ChatMessage.class);
+                    page.add(msg);
+                    if (messageList.findById(msg.id) != null) {
+                        messageList.upsert(msg);
+                    } else {
+                        added = true;
+                    }
+                }
+                messageStore.save(roomName, page);
+                if (!documents.isEmpty()) {
+                    advanceCursor(cursorOf(documents.get(documents.size() - 1)));
+                }
+                if (documents.size() >= PAGE_SIZE) {
+                    backfill(added);
+                } else {
+                    finishBackfill(added);
+                }
+            })
+            .addOnFailureListener(e -> {
+                if (closed) return;
+                // Offline: the live listener still shows what arrives; the next gap check retries
+                finishBackfill(addedMessages);
+            });
+    }
+
+    private void finishBackfill(boolean addedMessages) {
+        backfilling = false;
+        if (addedMessages) {
+            reloadLatest();
+        }
+        if (!listening) {
+            listenForMessages();
+        }
+    }
+
+    // Messages without updatedAt (see LegacyMessages) in sender time order, from shortly before the
+    // newest stored message. Stored and shown like the backfill above; the other documents in these
+    // pages are left to it. Offline it gives up, as the legacy live window shows what arrives.
+    private void backfillLegacy(long fromTimestamp, @Nullable DocumentSnapshot after, boolean addedMessages) {
+        Query query = messagesRef.orderBy(TIMESTAMP).orderBy(FieldPath.documentId());
+        query = after != null ? query.startAfter(after) : query.startAt(fromTimestamp);
+        query.limit(PAGE_SIZE)
+            .get(Source.SERVER)
+            .addOnSuccessListener(snapshot -> {
+                if (closed) return;
+                List<DocumentSnapshot> documents = snapshot.getDocuments();
+                List<ChatMessage> legacy = LegacyMessages.select(snapshot.toObjects(ChatMessage.class));
+                boolean added = addedMessages;
+                for (ChatMessage msg : legacy) {
+                    if (messageList.findById(msg.id) != null) {
+                        messageList.upsert(msg);
+                    } else {
+                        added = true;
+                    }
+                }
+                messageStore.save(roomName, legacy);
+                if (documents.size() >= PAGE_SIZE) {
+                    backfillLegacy(fromTimestamp, documents.get(documents.size() - 1), added);
+                } else if (added) {
+                    reloadLatest();
+                }
+            });
+    }
+
+    private void reloadLatest() {
+        hasMoreOlder = true;
+        messageStore.loadLatest(roomName, PAGE_SIZE, latest -> {
+            if (closed) return;
+            messageList.replaceAll(latest);
+            showUnsent();
+            if (listener != null) listener.onLiveMessages(true, 0L);
+        });
+    }
+
+    // The live query is the newest PAGE_SIZE documents in server write order: every new or rewritten
+    // message enters it, whatever its sender's clock says, and it never grows past one page.
+    private void listenForMessages() {
+        listening = true;
+        Query query = messagesRef.orderBy(UPDATED_AT).orderBy(FieldPath.documentId()).limitToLast(PAGE_SIZE);
+        registrations.add(query.addSnapshotListener((value, error) -> {
+            if (error != null) {
+                if (listener != null) listener.onError("Error loading messages");
+                return;
+            }
+            if (value == null) return;
+
+            Metrics.increment(Metrics.Counter.SNAPSHOTS);
+            long renderStart = Metrics.start();
+            int previousSize = messageList.size();
+            List<ChatMessage> changed = new ArrayList<>();
+            for (DocumentChange change : value.getDocumentChanges()) {
+                // Removed means pushed out of the window by newer writes; messages are never deleted
+                if (change.getType() == DocumentChange.Type.REMOVED) continue;
+                ChatMessage msg = change.getDocument().toObject(ChatMessage.class);
+                messageList.upsert(msg);
+                changed.add(msg);
+            }
+            showUnsent();
+            messageStore.save(roomName, changed);
+            if (!value.getMetadata().isFromCache()) {
+                syncFromWindow(value.getDocuments());
+            }
+            if (listener != null) {
+                listener.onLiveMessages(messageList.size() > previousSize, renderStart);
+            }
+        }));
+        listenForLegacyMessages();
+    }
+
+    // Documents without updatedAt never enter the window above. The newest page in sender time
+    // order, the app's live query before updatedAt existed, delivers those; every other document in
+    // it is already in the window above, or is our own write still waiting for its server time.
+    private void listenForLegacyMessages() {
+        Query query = messagesRef.orderBy(TIMESTAMP).orderBy(FieldPath.documentId()).limitToLast(PAGE_SIZE);
+        registrations.add(query.addSnapshotListener((value, error) -> {
+            if (error != null || value == null) return; // The window above reports errors
+            List<ChatMessage> page = new ArrayList<>();
+            for (DocumentChange change : value.getDocumentChanges()) {
+                if (change.getType() == DocumentChange.Type.REMOVED) continue;
+                if (change.getDocument().getMetadata().hasPendingWrites()) continue;
+                page.add(change.getDocument().toObject(ChatMessage.class));
+            }
+            int previousSize = messageList.size();
+            List<ChatMessage> legacy = LegacyMessages.merge(messageList, page);
+            if (legacy.isEmpty()) return;
+            showUnsent();
+            messageStore.save(roomName, legacy);
+            if (listener != null) {
+                listener.onLiveMessages(messageList.size() > previousSize, 0L);
+            }
+        }));
+    }
+
+    // A server snapshot of the window holds every document between its oldest and newest entry. If
+    // the oldest is at or before the cursor, the cursor moves to the newest; otherwise more than a
+    // page was written at once and the documents in between are fetched by a backfill.
+    private void syncFromWindow(List<DocumentSnapshot> window) {
+        MessageStore.SyncCursor oldest = null;
+        MessageStore.SyncCursor newest = null;
+        for (DocumentSnapshot document : window) {
+            if (document.getMetadata().hasPendingWrites()) continue; // No server time yet
+            MessageStore.SyncCursor cursor = cursorOf(document);
+            if (oldest == null) oldest = cursor;
+            newest = cursor;
+        }
+        if (newest == null) return;
+        if (syncCursor == null || oldest.compareTo(syncCursor) <= 0 || window.size() < PAGE_SIZE) {
+            advanceCursor(newest);
+        } else if (!backfilling) {
+            backfill(false);
+        }
+    }
+
+    private void advanceCursor(MessageStore.SyncCursor cursor) {
+        if (syncCursor != null && cursor.compareTo(syncCursor) <= 0) return;
+        syncCursor = cursor;
+        messageStore.saveSyncCursor(roomName, cursor);
+    }
+
+    private static MessageStore.SyncCursor cursorOf(DocumentSnapshot document) {
+        return new MessageStore.SyncCursor(document.getTimestamp(UPDATED_AT), document.getId());
+    }
+
+    private void fetchOlder(@Nullable ChatMessage oldest) {
+        // (timestamp, ID) cursor, so messages sharing the oldest loaded millisecond are not skipped
+        Query query = messagesRef.orderBy(TIMESTAMP).orderBy(FieldPath.documentId());
+        if (oldest != null) {
+            query = query.endBefore(oldest.timestamp, oldest.id);
+        }
+        query.limitToLast(PAGE_SIZE)
+            .get()
+            .addOnSuccessListener(snapshot -> {
+                loadingOlder = false;
+                if (closed) return;
+                List<ChatMessage> page = snapshot.toObjects(ChatMessage.class);
+                hasMoreOlder = page.size() >= PAGE_SIZE;
+                messageStore.save(roomName, page);
+                deliverOlder(page);
+            })
+            .addOnFailureListener(e -> {
+                loadingOlder = false;
+                if (!closed && listener != null) listener.onError("Error loading older messages");
+            });
+    }
+
+    private void deliverOlder(List<ChatMessage> page) {
+        if (listener != null) {
+            listener.onOlderPage(page);
+        } else {
+            messageList.prependOlder(page);
+        }
+    }
+
+    // Every unacknowledged message stays on screen, also when Firestore rolls back a rejected write
+    private void showUnsent() {
+        for (ChatMessage echo : outbound.getUnsent()) {
+            if (messageList.findById(echo.id) == null) {
+                messageList.addPending(echo);
+            }
+        }
+    }
+
+    private void notifyChanged(@Nullable ChatMessage message) {
+        if (message != null && listener != null) {
+            listener.onMessageChanged(message);
+        }
+    }
+
+    // Current messages carry a binary payload; older ones only have the Base64 string
+    private String decryptMessage(ChatMessage msg, CryptoUtils.SessionKey key) throws Exception {
+        if (msg.payload != null) {
+            byte[] plaintext = CryptoUtils.decryptBytes(msg.payload.toBytes(), key, roomPassword);
+            return new String(plaintext, StandardCharsets.UTF_8);
+        }
+        return CryptoUtils.decrypt(msg.encryptedContent, key, roomPassword);
+    }
+}
@@ -0,0 +1,30 @@
+package com.encrypto.app;
+
+import android.content.Context;
+
+import androidx.lifecycle.ViewModel;
+
+/**
+ * Keeps the {@link RoomSession} across configuration changes. The session is closed, and the seat
+ * given up, only when the chat screen is finished for good.
+ */
+public class RoomViewModel extends ViewModel {
+
+    private RoomSession session;
+
+    /** The session of this screen, created on the first call; later calls ignore the arguments. */
+    public RoomSession open(Context context, String roomName, String alias, String password, int capacity) {
+        if (session == null) {
+            session = new RoomSession(context.getApplicationContext(), roomName, alias, password, capacity);
+        }
+        return session;
+    }
+
+    @Override
+    protected void onCleared() {
+        if (session != null) {
+            session.close();
+            session = null;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.encrypto.app;
+
+import android.app.Activity;
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cold-start phases, in milliseconds since the process was forked.
+ *
+ * Each phase is recorded once per process and logged as it happens ({@code adb logcat -s Startup}),
+ * so time-to-first-frame can be compared between releases. The marks also appear on the diagnostics
+ * screen and in its JSON dump.
+ */
+final class StartupTrace {
+
+    private static final String TAG = "Startup";
+
+    static final String APPLICATION_CREATE = "application_create";
+    static final String APPLICATION_CREATED = "application_created";
+    static final String ACTIVITY_CREATED = "activity_created";
+    static final String FIRST_FRAME = "first_frame";
+    static final String PREFERENCES_LOADED = "preferences_loaded";
+    static final String CRYPTO_WARM = "crypto_warm";
+
+    // Below API 24 the fork time is unknown; loading this class is the closest stand-in
+    private static final long CLASS_LOADED = SystemClock.uptimeMillis();
+
+    private static final Map<String, Long> marks = new LinkedHashMap<>();
+    private static final CountDownLatch firstFrame = new CountDownLatch(1);
+
+    private StartupTrace() {
+    }
+
+    static void mark(String phase) {
+        long elapsed = SystemClock.uptimeMillis() - processStart();
+        synchronized (marks) {
+            if (marks.containsKey(phase)) return;
+            marks.put(phase, elapsed);
+        }
+        if (FIRST_FRAME.equals(phase)) {
+            firstFrame.countDown();
+        }
+        Log.i(TAG, phase + " at " + elapsed + " ms");
+    }
+
+    /** Marks the first frame once the activity's first layout pass is done and drawn. */
+    static void watchFirstFrame(Activity activity) {
+        synchronized (marks) {
+            if (marks.containsKey(FIRST_FRAME)) return;
+        }
+        final View decor = activity.getWindow().getDecorView();
+        decor.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                decor.getViewTreeObserver().removeOnPreDrawListener(this);
+                // Runs after the frame this pre-draw belongs to has been drawn
+                decor.post(() -> {
+                    mark(FIRST_FRAME);
+                    activity.reportFullyDrawn();
+                });
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Blocks until the first frame is drawn, or for at most timeoutMillis when the process was started
+     * without a screen. Returns whether the frame was seen.
+     */
+    static boolean awaitFirstFrame(long timeoutMillis) throws InterruptedException {
+        return firstFrame.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    static Map<String, Long> getMarks() {
+        synchronized (marks) {
+            return new LinkedHashMap<>(marks);
+        }
+    }
+
+    private static long processStart() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.N ? Process.getStartUptimeMillis() : CLASS_LOADED;
+    }
+}
@@ -0,0 +1,239 @@
+package com.encrypto.app;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Segmented AES-GCM for files and other inputs too large to hold in memory.
+ *
+ * Layout: [magic "ENCF"(4) | version(1) | salt(16) | noncePrefix(7) | segmentSize(4)] followed by
+ * segments of [ciphertext(<= segmentSize) | tag(16)]. Each segment is sealed under its own nonce,
+ * noncePrefix | segmentIndex(4) | finalFlag(1), with the header as associated data. Reordered,
+ * dropped or truncated segments therefore fail authentication, and only the last segment can carry
+ * the final flag. Memory use is a few segment buffers regardless of input size.
+ */
+public final class StreamCrypto {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+    static final int MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    static final byte[] MAGIC = {'E', 'N', 'C', 'F'};
+    static final byte STREAM_VERSION = 0x01;
+    static final int NONCE_PREFIX_LENGTH = 7;
+    static final int NONCE_LENGTH = 12;
+    static final int TAG_LENGTH = 16;
+    static final int HEADER_LENGTH = MAGIC.length + 1 + CryptoUtils.SALT_LENGTH + NONCE_PREFIX_LENGTH + 4;
+
+    private static final SecureRandom secureRandom = new SecureRandom();
+
+    private StreamCrypto() {
+    }
+
+    public static void encrypt(InputStream in, OutputStream out, String password) throws IOException, GeneralSecurityException {
+        encrypt(in, out, password, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public static void encrypt(InputStream in, OutputStream out, String password, int segmentSize)
+            throws IOException, GeneralSecurityException {
+        if (in == null || out == null || password == null) {
+            throw new IllegalArgumentException("Streams and password must not be null");
+        }
+        Header header = Header.create(segmentSize);
+        encrypt(in, out, header, header.deriveKey(password));
+    }
+
+    // Key already derived from the header salt; split out so benchmarks can skip Argon2
+    static void encrypt(InputStream in, OutputStream out, Header header, SecretKey key)
+            throws IOException, GeneralSecurityException {
+        int segmentSize = header.segmentSize;
+        out.write(header.bytes);
+
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        byte[] current = new byte[segmentSize];
+        byte[] next = new byte[segmentSize];
+        byte[] sealed = new byte[segmentSize + TAG_LENGTH];
+
+        // Read one segment ahead so the final one can be flagged
+        int currentLength = readFully(in, current, segmentSize);
+        long index = 0;
+        while (true) {
+            int nextLength = currentLength < segmentSize ? 0 : readFully(in, next, segmentSize);
+            boolean last = nextLength == 0;
+            int sealedLength = sealSegment(cipher, key, header, index++, last, current, currentLength, sealed);
+            out.write(sealed, 0, sealedLength);
+            if (last) break;
+
+            byte[] swap = current;
+            current = next;
+            next = swap;
+            currentLength = nextLength;
+        }
+        out.flush();
+        Arrays.fill(current, (byte) 0);
+        Arrays.fill(next, (byte) 0);
+    }
+
+    public static void decrypt(InputStream in, OutputStream out, String password) throws IOException, GeneralSecurityException {
+        if (in == null || out == null || password == null) {
+            throw new IllegalArgumentException("Streams and password must not be null");
+        }
+        Header header = Header.read(in);
+        decrypt(in, out, header, header.deriveKey(password));
+    }
+
+    static void decrypt(InputStream in, OutputStream out, Header header, SecretKey key)
+            throws IOException, GeneralSecurityException {
+        int chunkSize = header.segmentSize + TAG_LENGTH;
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        byte[] current = new byte[chunkSize];
+        byte[] next = new byte[chunkSize];
+        byte[] plain = new byte[header.segmentSize];
+
+        int currentLength = readFully(in, current, chunkSize);
+        long index = 0;
+        while (true) {
+            if (currentLength < TAG_LENGTH) {
+                throw new IOException("Truncated encrypted stream");
+            }
+            int nextLength = currentLength < chunkSize ? 0 : readFully(in, next, chunkSize);
+            boolean last = nextLength == 0;
+            int plainLength = openSegment(cipher, key, header, index++, last, current, currentLength, plain);
+            out.write(plain, 0, plainLength);
+            if (last) break;
+
+            byte[] swap = current;
+            current = next;
+            next = swap;
+            currentLength = nextLength;
+        }
+        out.flush();
+        Arrays.fill(plain, (byte) 0);
+    }
+
+    public static void encrypt(FileChannel in, FileChannel out, String password) throws IOException, GeneralSecurityException {
+        encrypt(Channels.newInputStream(in), Channels.newOutputStream(out), password);
+    }
+
+    public static void decrypt(FileChannel in, FileChannel out, String password) throws IOException, GeneralSecurityException {
+        decrypt(Channels.newInputStream(in), Channels.newOutputStream(out), password);
+    }
+
+    /** Consumes the first bytes of the stream and reports whether they carry the segmented-format magic. */
+    public static boolean isEncryptedStream(InputStream in) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        return readFully(in, magic, magic.length) == magic.length && Arrays.equals(magic, MAGIC);
+    }
+
+    static int sealSegment(Cipher cipher, SecretKey key, Header header, long index, boolean last,
+                           byte[] in, int length, byte[] out) throws GeneralSecurityException {
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, header.nonce(index, last)));
+        cipher.updateAAD(header.bytes);
+        return cipher.doFinal(in, 0, length, out, 0);
+    }
+
+    static int openSegment(Cipher cipher, SecretKey key, Header header, long index, boolean last,
+                           byte[] in, int length, byte[] out) throws GeneralSecurityException {
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, header.nonce(index, last)));
+        cipher.updateAAD(header.bytes);
+        return cipher.doFinal(in, 0, length, out, 0);
+    }
+
+    // Reads until the buffer holds length bytes or the stream ends
+    static int readFully(InputStream in, byte[] buffer, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int read = in.read(buffer, total, length - total);
+            if (read < 0) break;
+            total += read;
+        }
+        return total;
+    }
+
+    static final class Header {
+        final byte[] bytes;
+        final int segmentSize;
+
+        private Header(byte[] bytes, int segmentSize) {
+            this.bytes = bytes;
+            this.segmentSize = segmentSize;
+        }
+
+        static Header create(int segmentSize) {
+            if (segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE) {
+                throw new IllegalArgumentException("Invalid segment size: " + segmentSize);
+            }
+            byte[] bytes = new byte[HEADER_LENGTH];
+            int pos = 0;
+            System.arraycopy(MAGIC, 0, bytes, pos, MAGIC.length);
+            pos += MAGIC.length;
+            bytes[pos++] = STREAM_VERSION;
+
+            // Fresh salt and nonce prefix for every stream
+            byte[] random = new byte[CryptoUtils.SALT_LENGTH + NONCE_PREFIX_LENGTH];
+            secureRandom.nextBytes(random);
+            System.arraycopy(random, 0, bytes, pos, random.length);
+            pos += random.length;
+
+            bytes[pos++] = (byte) (segmentSize >>> 24);
+            bytes[pos++] = (byte) (segmentSize >>> 16);
+            bytes[pos++] = (byte) (segmentSize >>> 8);
+            bytes[pos] = (byte) segmentSize;
+            return new Header(bytes, segmentSize);
+        }
+
+        static Header read(InputStream in) throws IOException {
+            byte[] bytes = new byte[HEADER_LENGTH];
+            if (readFully(in, bytes, HEADER_LENGTH) != HEADER_LENGTH) {
+                throw new IOException("Truncated stream header");
+            }
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (bytes[i] != MAGIC[i]) {
+                    throw new IOException("Not an Encrypto stream");
+                }
+            }
+            if (bytes[MAGIC.length] != STREAM_VERSION) {
+                throw new IOException("Unsupported stream version: " + bytes[MAGIC.length]);
+            }
+            int pos = HEADER_LENGTH - 4;
+            int segmentSize = ((bytes[pos] & 0xff) << 24) | ((bytes[pos + 1] & 0xff) << 16)
+                    | ((bytes[pos + 2] & 0xff) << 8) | (bytes[pos + 3] & 0xff);
+            if (segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE) {
+                throw new IOException("Invalid segment size: " + segmentSize);
+            }
+            return new Header(bytes, segmentSize);
+        }
+
+        SecretKey deriveKey(String password) {
+            byte[] salt = Arrays.copyOfRange(bytes, MAGIC.length + 1, MAGIC.length + 1 + CryptoUtils.SALT_LENGTH);
+            byte[] keyBytes = CryptoUtils.deriveKey(password, salt);
+            SecretKey key = new SecretKeySpec(keyBytes, "AES");
+            Arrays.fill(keyBytes, (byte) 0);
+            return key;
+        }
+
+        byte[] nonce(long index, boolean last) {
+            if (index > 0xFFFFFFFFL) {
+                throw new IllegalStateException("Stream has too many segments");
+            }
+            byte[] nonce = new byte[NONCE_LENGTH];
+            System.arraycopy(bytes, MAGIC.length + 1 + CryptoUtils.SALT_LENGTH, nonce, 0, NONCE_PREFIX_LENGTH);
+            nonce[7] = (byte) (index >>> 24);
+            nonce[8] = (byte) (index >>> 16);
+            nonce[9] = (byte) (index >>> 8);
+            nonce[10] = (byte) index;
+            nonce[11] = (byte) (last ? 1 : 0);
+            return nonce;
+        }
+    }
+}
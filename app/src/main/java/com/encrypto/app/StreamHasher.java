@@ -0,0 +1,147 @@
+package com.encrypto.app;
+
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.digests.Blake2bDigest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.digests.SHA3Digest;
+import org.bouncycastle.crypto.digests.SHA512Digest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Hashes streams and files with several algorithms in a single pass.
+ *
+ * Each block is fed to every requested digest before the next one is read, so four digests cost one
+ * read of the input instead of four. Files of {@link #MAP_THRESHOLD} or more are memory-mapped a
+ * window at a time instead of being read through a buffer. The digests come from Bouncy Castle, so
+ * SHA3 and BLAKE2b are available on every API level.
+ */
+public final class StreamHasher {
+
+    public enum Algorithm {
+        SHA_256("SHA-256"),
+        SHA_512("SHA-512"),
+        SHA3_256("SHA3-256"),
+        BLAKE2B_256("BLAKE2b-256");
+
+        public final String displayName;
+
+        Algorithm(String displayName) {
+            this.displayName = displayName;
+        }
+
+        Digest newDigest() {
+            switch (this) {
+                case SHA_256:
+                    return new SHA256Digest();
+                case SHA_512:
+                    return new SHA512Digest();
+                case SHA3_256:
+                    return new SHA3Digest(256);
+                default:
+                    return new Blake2bDigest(256);
+            }
+        }
+    }
+
+    static final int BUFFER_SIZE = 64 * 1024;
+    static final long MAP_THRESHOLD = 4L * 1024 * 1024;
+    // Mapped a window at a time so large files never need a contiguous range of address space
+    static final long MAP_WINDOW = 32L * 1024 * 1024;
+
+    private StreamHasher() {
+    }
+
+    public static Map<Algorithm, byte[]> hash(byte[] data, Algorithm... algorithms) {
+        long start = Metrics.start();
+        Digest[] digests = newDigests(algorithms);
+        update(digests, data, 0, data.length);
+        return finish(algorithms, digests, start);
+    }
+
+    /** Reads the stream to its end; the caller closes it. */
+    public static Map<Algorithm, byte[]> hash(InputStream in, Algorithm... algorithms) throws IOException {
+        long start = Metrics.start();
+        Digest[] digests = newDigests(algorithms);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            update(digests, buffer, 0, read);
+        }
+        return finish(algorithms, digests, start);
+    }
+
+    /** Hashes the whole file regardless of the channel position, which is left unchanged. */
+    public static Map<Algorithm, byte[]> hash(FileChannel channel, Algorithm... algorithms) throws IOException {
+        long start = Metrics.start();
+        Digest[] digests = newDigests(algorithms);
+        updateRange(digests, channel, 0, channel.size(), new byte[BUFFER_SIZE]);
+        return finish(algorithms, digests, start);
+    }
+
+    static Digest[] newDigests(Algorithm... algorithms) {
+        if (algorithms.length == 0) {
+            throw new IllegalArgumentException("At least one algorithm is required");
+        }
+        Digest[] digests = new Digest[algorithms.length];
+        for (int i = 0; i < algorithms.length; i++) {
+            digests[i] = algorithms[i].newDigest();
+        }
+        return digests;
+    }
+
+    static void update(Digest[] digests, byte[] data, int offset, int length) {
+        for (Digest digest : digests) {
+            digest.update(data, offset, length);
+        }
+    }
+
+    /**
+     * Feeds length bytes starting at position to every digest. Uses positional reads, so several
+     * threads can hash different ranges of the same channel.
+     */
+    static void updateRange(Digest[] digests, FileChannel channel, long position, long length, byte[] buffer)
+            throws IOException {
+        long end = position + length;
+        if (length >= MAP_THRESHOLD) {
+            for (long start = position; start < end; start += MAP_WINDOW) {
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(MAP_WINDOW, end - start));
+                while (window.hasRemaining()) {
+                    int n = Math.min(buffer.length, window.remaining());
+                    window.get(buffer, 0, n);
+                    update(digests, buffer, 0, n);
+                }
+            }
+            return;
+        }
+        ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+        for (long pos = position; pos < end; ) {
+            wrapped.clear();
+            wrapped.limit((int) Math.min(buffer.length, end - pos));
+            int read = channel.read(wrapped, pos);
+            if (read < 0) {
+                throw new IOException("File shrank while hashing");
+            }
+            update(digests, buffer, 0, read);
+            pos += read;
+        }
+    }
+
+    // startNanos is the Metrics.start() token of the whole hash
+    static Map<Algorithm, byte[]> finish(Algorithm[] algorithms, Digest[] digests, long startNanos) {
+        Map<Algorithm, byte[]> result = new EnumMap<>(Algorithm.class);
+        for (int i = 0; i < algorithms.length; i++) {
+            byte[] out = new byte[digests[i].getDigestSize()];
+            digests[i].doFinal(out, 0);
+            result.put(algorithms[i], out);
+        }
+        Metrics.record(Metrics.Stage.HASH, startNanos);
+        return result;
+    }
+}
@@ -0,0 +1,184 @@
+package com.encrypto.app;
+
+import org.bouncycastle.crypto.Digest;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Multi-core tree hash for large files.
+ *
+ * The file is cut into leaves of {@code leafSize} bytes that are hashed on a worker pool, then the
+ * leaf digests are combined pairwise up to one root. Leaves are H(0x00 | leaf) and inner nodes
+ * H(0x01 | left | right), with an unpaired node carried up unchanged, as in RFC 6962 Merkle trees.
+ * The root is not the plain digest of the file: it only matches another tree hash made with the
+ * same algorithm and leaf size.
+ */
+public final class TreeHasher {
+
+    public static final int DEFAULT_LEAF_SIZE = 1024 * 1024;
+
+    private static final byte LEAF_PREFIX = 0x00;
+    private static final byte NODE_PREFIX = 0x01;
+
+    private static TreeHasher instance;
+
+    private final ExecutorService workers;
+
+    private final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[StreamHasher.BUFFER_SIZE];
+        }
+    };
+
+    public static synchronized TreeHasher getInstance() {
+        if (instance == null) {
+            instance = new TreeHasher(Runtime.getRuntime().availableProcessors());
+        }
+        return instance;
+    }
+
+    public TreeHasher(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Thread count must be positive");
+        }
+        this.workers = Executors.newFixedThreadPool(threads, new WorkerThreadFactory());
+    }
+
+    public Map<StreamHasher.Algorithm, byte[]> hash(FileChannel channel, StreamHasher.Algorithm... algorithms)
+            throws IOException {
+        return hash(channel, DEFAULT_LEAF_SIZE, algorithms);
+    }
+
+    public Map<StreamHasher.Algorithm, byte[]> hash(FileChannel channel, int leafSize, StreamHasher.Algorithm... algorithms)
+            throws IOException {
+        if (leafSize <= 0) {
+            throw new IllegalArgumentException("Leaf size must be positive");
+        }
+        StreamHasher.newDigests(algorithms); // Validates the algorithm list before any work is queued
+        long startNanos = Metrics.start();
+
+        long size = channel.size();
+        long leafCount = Math.max(1, (size + leafSize - 1) / leafSize);
+        List<Future<byte[][]>> leaves = new ArrayList<>();
+        try {
+            for (long i = 0; i < leafCount; i++) {
+                long start = i * leafSize;
+                leaves.add(workers.submit(new LeafTask(channel, start, Math.min(leafSize, size - start), algorithms)));
+            }
+
+            // level.get(i)[a] is the digest of node i for algorithm a
+            List<byte[][]> level = new ArrayList<>(leaves.size());
+            for (Future<byte[][]> leaf : leaves) {
+                level.add(await(leaf));
+            }
+            Map<StreamHasher.Algorithm, byte[]> result = root(level, algorithms);
+            Metrics.record(Metrics.Stage.HASH, startNanos);
+            return result;
+        } finally {
+            for (Future<byte[][]> leaf : leaves) {
+                leaf.cancel(false); // An interrupt would close the caller's channel
+            }
+        }
+    }
+
+    /** Stops the worker threads. Only for instances created with the public constructor. */
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    private static Map<StreamHasher.Algorithm, byte[]> root(List<byte[][]> level, StreamHasher.Algorithm[] algorithms) {
+        while (level.size() > 1) {
+            List<byte[][]> parents = new ArrayList<>((level.size() + 1) / 2);
+            for (int i = 0; i + 1 < level.size(); i += 2) {
+                byte[][] left = level.get(i);
+                byte[][] right = level.get(i + 1);
+                byte[][] parent = new byte[algorithms.length][];
+                for (int a = 0; a < algorithms.length; a++) {
+                    Digest digest = algorithms[a].newDigest();
+                    digest.update(NODE_PREFIX);
+                    digest.update(left[a], 0, left[a].length);
+                    digest.update(right[a], 0, right[a].length);
+                    parent[a] = new byte[digest.getDigestSize()];
+                    digest.doFinal(parent[a], 0);
+                }
+                parents.add(parent);
+            }
+            if (level.size() % 2 == 1) {
+                parents.add(level.get(level.size() - 1));
+            }
+            level = parents;
+        }
+
+        Map<StreamHasher.Algorithm, byte[]> result = new EnumMap<>(StreamHasher.Algorithm.class);
+        for (int a = 0; a < algorithms.length; a++) {
+            result.put(algorithms[a], level.get(0)[a]);
+        }
+        return result;
+    }
+
+    private static byte[][] await(Future<byte[][]> leaf) throws IOException {
+        try {
+            return leaf.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private final class LeafTask implements Callable<byte[][]> {
+        private final FileChannel channel;
+        private final long start;
+        private final long length;
+        private final StreamHasher.Algorithm[] algorithms;
+
+        LeafTask(FileChannel channel, long start, long length, StreamHasher.Algorithm[] algorithms) {
+            this.channel = channel;
+            this.start = start;
+            this.length = length;
+            this.algorithms = algorithms;
+        }
+
+        @Override
+        public byte[][] call() throws IOException {
+            Digest[] digests = StreamHasher.newDigests(algorithms);
+            for (Digest digest : digests) {
+                digest.update(LEAF_PREFIX);
+            }
+            StreamHasher.updateRange(digests, channel, start, length, buffers.get());
+            byte[][] out = new byte[digests.length][];
+            for (int a = 0; a < digests.length; a++) {
+                out[a] = new byte[digests[a].getDigestSize()];
+                digests[a].doFinal(out[a], 0);
+            }
+            return out;
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "tree-hash-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -1,9 +1,19 @@
 package com.encrypto.app.models;
 
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.Blob;
+import com.google.firebase.firestore.DocumentId;
+import com.google.firebase.firestore.ServerTimestamp;
+
 public class ChatMessage {
+    @DocumentId
+    public String id; // Filled from the Firestore document, never written
     public String senderAlias;
-    public String encryptedContent;
-    public long timestamp;
+    public String encryptedContent; // Legacy Base64 payload, only present on older messages
+    public Blob payload;            // Raw envelope bytes, written by current clients
+    public long timestamp;          // Sender's clock: display order only, never a sync cursor
+    @ServerTimestamp
+    public Timestamp updatedAt;     // Set by Firestore on every write; the sync cursor
 
     public ChatMessage() {
         // Required for Firebase
@@ -14,4 +24,10 @@ public class ChatMessage {
         this.encryptedContent = encryptedContent;
         this.timestamp = timestamp;
     }
+
+    public ChatMessage(String senderAlias, Blob payload, long timestamp) {
+        this.senderAlias = senderAlias;
+        this.payload = payload;
+        this.timestamp = timestamp;
+    }
 }
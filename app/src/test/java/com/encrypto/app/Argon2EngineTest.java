@@ -0,0 +1,89 @@
+package com.encrypto.app;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.bouncycastle.crypto.generators.Argon2BytesGenerator;
+import org.bouncycastle.crypto.params.Argon2Parameters;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class Argon2EngineTest {
+
+    // RFC 9106 section 5.3: Argon2id, t=3, m=32 KiB, p=4, 32-byte tag
+    private static final byte[] RFC_TAG = hex("0d640df58d78766c08c037a34a8b53c9d01ef0452d75b65eb52520e96b01e659");
+
+    private static byte[] filled(int length, int value) {
+        byte[] out = new byte[length];
+        Arrays.fill(out, (byte) value);
+        return out;
+    }
+
+    private static byte[] hex(String s) {
+        byte[] out = new byte[s.length() / 2];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
+        }
+        return out;
+    }
+
+    private static byte[] rfcVector(Argon2Engine engine) {
+        return engine.derive(filled(32, 0x01), filled(16, 0x02), filled(8, 0x03), filled(12, 0x04), 3, 32, 4, 32);
+    }
+
+    @Test
+    public void matchesTheRfc9106Vector() {
+        assertArrayEquals(RFC_TAG, rfcVector(new Argon2Engine(0)));
+    }
+
+    @Test
+    public void matchesTheVectorWithLanesOnThreadsAndAPooledArena() {
+        Argon2Engine engine = new Argon2Engine(1, 4);
+        assertArrayEquals(RFC_TAG, rfcVector(engine));
+        // The second run reuses the first run's arena, which must not leak into the result
+        assertArrayEquals(RFC_TAG, rfcVector(engine));
+        assertEquals(1, engine.getStats().reuses);
+    }
+
+    @Test
+    public void agreesWithBouncyCastle() {
+        byte[] password = "correct horse battery staple".getBytes(StandardCharsets.UTF_8);
+        byte[] salt = filled(16, 0x5A);
+        KdfParams params = new KdfParams(2, KdfParams.MIN_MEMORY_LOG2, 2);
+
+        Argon2BytesGenerator generator = new Argon2BytesGenerator();
+        generator.init(new Argon2Parameters.Builder(Argon2Parameters.ARGON2_id)
+                .withVersion(Argon2Parameters.ARGON2_VERSION_13)
+                .withIterations(params.iterations)
+                .withMemoryAsKB(params.memoryKb())
+                .withParallelism(params.parallelism)
+                .withSalt(salt)
+                .build());
+        byte[] expected = new byte[32];
+        generator.generateBytes(password, expected);
+
+        assertArrayEquals(expected, new Argon2Engine(1).derive(password, salt, params, 32));
+    }
+
+    @Test
+    public void dropsIdleArenasAfterTheTimeout() throws InterruptedException {
+        Argon2Engine engine = new Argon2Engine(1);
+        engine.setIdleTimeoutMillis(50);
+        rfcVector(engine);
+        assertTrue(engine.getStats().idleBytes > 0);
+
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (engine.getStats().idleBytes > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(0, engine.getStats().idleBytes);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTooLittleMemoryForTheLanes() {
+        new Argon2Engine(0).derive(new byte[0], filled(16, 0), new byte[0], new byte[0], 1, 8 * 4 - 1, 4, 32);
+    }
+}
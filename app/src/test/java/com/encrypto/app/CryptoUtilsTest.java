@@ -0,0 +1,158 @@
+package com.encrypto.app;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+
+public class CryptoUtilsTest {
+
+    private static final int FLAG_DEFLATE = 0x80;
+    private static final int FLAG_SUITE = 0x40;
+
+    // Cheapest allowed Argon2 cost; the format does not depend on it
+    private static final KdfParams FAST = new KdfParams(1, KdfParams.MIN_MEMORY_LOG2, 1);
+
+    private static final byte[] TEXT = repeat("Meeting moved to room 4B at three; bring the signed budget draft. ", 40);
+
+    private static CryptoUtils.SessionKey sessionKey;
+
+    @BeforeClass
+    public static void deriveKey() {
+        sessionKey = CryptoUtils.deriveSessionKey("correct horse", CryptoUtils.newRoomSalt(), FAST);
+    }
+
+    @After
+    public void restoreDefaults() {
+        CryptoUtils.setCompressionEnabled(true);
+        CryptoUtils.setCipherSuite(CipherSuite.AES_GCM);
+        CryptoUtils.setKdfParams(KdfParams.LEGACY);
+    }
+
+    private static byte[] repeat(String text, int times) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            sb.append(text);
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] data = new byte[length];
+        new SecureRandom().nextBytes(data);
+        return data;
+    }
+
+    private static void assertRejected(byte[] sealed) {
+        try {
+            CryptoUtils.decryptBytes(sealed, sessionKey, null);
+            fail("Payload with altered header flags was accepted");
+        } catch (Exception expected) {
+            // The flags are authenticated, or the altered header no longer parses
+        }
+    }
+
+    @Test
+    public void compressibleTextIsDeflatedAndRoundTrips() throws Exception {
+        byte[] sealed = CryptoUtils.encryptBytes(TEXT, sessionKey);
+
+        assertTrue((sealed[0] & FLAG_DEFLATE) != 0);
+        assertTrue(sealed.length < TEXT.length);
+        assertArrayEquals(TEXT, CryptoUtils.decryptBytes(sealed, sessionKey, null));
+    }
+
+    @Test
+    public void incompressibleAndShortInputsAreSealedRaw() throws Exception {
+        byte[] random = randomBytes(4096);
+        byte[] sealed = CryptoUtils.encryptBytes(random, sessionKey);
+        assertEquals(0, sealed[0] & FLAG_DEFLATE);
+        // AES-GCM carries no suite byte, so one less than the upper bound
+        assertEquals(CryptoUtils.sessionPayloadLength(random.length) - 1, sealed.length);
+        assertArrayEquals(random, CryptoUtils.decryptBytes(sealed, sessionKey, null));
+
+        byte[] shortText = "ok, see you there".getBytes(StandardCharsets.UTF_8);
+        sealed = CryptoUtils.encryptBytes(shortText, sessionKey);
+        assertEquals(0, sealed[0] & FLAG_DEFLATE);
+        assertArrayEquals(shortText, CryptoUtils.decryptBytes(sealed, sessionKey, null));
+    }
+
+    @Test
+    public void compressionCanBeSwitchedOff() throws Exception {
+        CryptoUtils.setCompressionEnabled(false);
+        byte[] sealed = CryptoUtils.encryptBytes(TEXT, sessionKey);
+
+        assertEquals(0, sealed[0] & FLAG_DEFLATE);
+        assertArrayEquals(TEXT, CryptoUtils.decryptBytes(sealed, sessionKey, null));
+    }
+
+    @Test
+    public void deflateFlagIsAuthenticated() throws Exception {
+        byte[] compressed = CryptoUtils.encryptBytes(TEXT, sessionKey);
+        compressed[0] &= ~FLAG_DEFLATE;
+        assertRejected(compressed);
+
+        CryptoUtils.setCompressionEnabled(false);
+        byte[] raw = CryptoUtils.encryptBytes(TEXT, sessionKey);
+        raw[0] |= FLAG_DEFLATE;
+        assertRejected(raw);
+    }
+
+    @Test
+    public void suiteByteIsAuthenticated() throws Exception {
+        CryptoUtils.setCipherSuite(CipherSuite.CHACHA20_POLY1305);
+        byte[] sealed = CryptoUtils.encryptBytes(TEXT, sessionKey);
+
+        assertTrue((sealed[0] & FLAG_SUITE) != 0);
+        assertEquals(CipherSuite.CHACHA20_POLY1305.id, sealed[1]);
+        assertArrayEquals(TEXT, CryptoUtils.decryptBytes(sealed, sessionKey, null));
+
+        byte[] otherSuite = sealed.clone();
+        otherSuite[1] = (byte) CipherSuite.AES_GCM.id;
+        assertRejected(otherSuite);
+
+        byte[] withoutFlag = sealed.clone();
+        withoutFlag[0] &= ~FLAG_SUITE;
+        assertRejected(withoutFlag);
+    }
+
+    @Test
+    public void payloadsOfEitherSuiteOpenWhateverIsSelected() throws Exception {
+        byte[] aes = CryptoUtils.encryptBytes(TEXT, sessionKey);
+        CryptoUtils.setCipherSuite(CipherSuite.CHACHA20_POLY1305);
+        byte[] chacha = CryptoUtils.encryptBytes(TEXT, sessionKey);
+
+        assertArrayEquals(TEXT, CryptoUtils.decryptBytes(aes, sessionKey, null));
+        CryptoUtils.setCipherSuite(CipherSuite.AES_GCM);
+        assertArrayEquals(TEXT, CryptoUtils.decryptBytes(chacha, sessionKey, null));
+    }
+
+    @Test
+    public void passwordPayloadsCarryTheSameFlags() throws Exception {
+        CryptoUtils.setKdfParams(FAST);
+        byte[] sealed = CryptoUtils.encryptBytes(TEXT, "correct horse");
+
+        assertTrue((sealed[0] & FLAG_DEFLATE) != 0);
+        assertArrayEquals(TEXT, CryptoUtils.decryptBytes(sealed, "correct horse"));
+
+        sealed[0] &= ~FLAG_DEFLATE;
+        try {
+            CryptoUtils.decryptBytes(sealed, "correct horse");
+            fail("Payload with altered header flags was accepted");
+        } catch (Exception expected) {
+            // Authenticated like session payloads
+        }
+    }
+
+    @Test
+    public void hexIsLowerCaseAndZeroPadded() {
+        assertEquals("", CryptoUtils.bytesToHex(new byte[0]));
+        assertEquals("00010f10a0ff", CryptoUtils.bytesToHex(new byte[]{0x00, 0x01, 0x0f, 0x10, (byte) 0xa0, (byte) 0xff}));
+    }
+}
@@ -0,0 +1,124 @@
+package com.encrypto.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.encrypto.app.models.ChatMessage;
+import com.google.firebase.firestore.Blob;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+public class DecryptSchedulerTest {
+
+    private final CountDownLatch blocked = new CountDownLatch(1);
+    private final List<ChatMessage> submitted = new ArrayList<>();
+    private final List<ChatMessage> failures = new ArrayList<>();
+    private MessageList list;
+    private DecryptScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        list = new MessageList(50);
+        // Every job blocks until the test ends, so what was submitted stays in flight
+        scheduler = new DecryptScheduler(this, CryptoExecutor.getInstance(), list, new PlaintextCache(),
+                message -> {
+                    submitted.add(message);
+                    return () -> {
+                        blocked.await();
+                        return "plain";
+                    };
+                },
+                new DecryptScheduler.Listener() {
+                    @Override
+                    public void onDecrypted(ChatMessage message) {
+                    }
+
+                    @Override
+                    public void onFailed(ChatMessage message, Exception e) {
+                        failures.add(message);
+                    }
+                });
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.stop();
+        blocked.countDown();
+    }
+
+    private static ChatMessage received(String id, long timestamp) {
+        ChatMessage msg = new ChatMessage("bob", "c2VhbGVk", timestamp);
+        msg.id = id;
+        return msg;
+    }
+
+    private static ChatMessage echo(String id, Blob payload) {
+        ChatMessage msg = new ChatMessage("alice", payload, Long.MAX_VALUE);
+        msg.id = id;
+        return msg;
+    }
+
+    private void addReceived(int count) {
+        for (int i = 0; i < count; i++) {
+            list.upsert(received("m" + i, i));
+        }
+    }
+
+    @Test
+    public void localEchoesAreNeitherSubmittedNorPending() {
+        addReceived(2);
+        ChatMessage encrypting = echo("e1", null);
+        ChatMessage encrypted = echo("e2", Blob.fromBytes(new byte[]{1, 2, 3}));
+        list.addPending(encrypting);
+        list.addPending(encrypted);
+
+        scheduler.start();
+        scheduler.setVisibleRange(0, list.size() - 1);
+
+        assertEquals(Arrays.asList(list.get(0), list.get(1)), submitted);
+        assertFalse(scheduler.isPending(encrypting));
+        assertFalse(scheduler.isPending(encrypted));
+        assertTrue(failures.isEmpty());
+    }
+
+    @Test
+    public void messageWithoutCiphertextIsSkipped() {
+        ChatMessage empty = new ChatMessage("bob", (String) null, 1);
+        empty.id = "m0";
+        list.upsert(empty);
+
+        scheduler.start();
+        scheduler.setVisibleRange(0, 0);
+
+        assertTrue(submitted.isEmpty());
+        assertFalse(scheduler.isPending(empty));
+    }
+
+    @Test
+    public void onlyQueuedAndRunningMessagesArePending() {
+        addReceived(30);
+
+        assertFalse(scheduler.isPending(list.get(0)));
+        scheduler.start();
+        scheduler.setVisibleRange(0, 5);
+
+        assertEquals(4, submitted.size());
+        // Beyond the in-flight limit but inside the prefetch window: queued
+        assertTrue(scheduler.isPending(list.get(5)));
+        assertTrue(scheduler.isPending(list.get(25)));
+        // Visible rows 0 to 5 plus 20 rows of prefetch below; nothing further is wanted yet
+        assertFalse(scheduler.isPending(list.get(26)));
+
+        scheduler.stop();
+        assertFalse(scheduler.isPending(list.get(0)));
+        assertFalse(scheduler.isPending(list.get(5)));
+    }
+}
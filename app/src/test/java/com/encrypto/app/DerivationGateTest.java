@@ -0,0 +1,136 @@
+package com.encrypto.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class DerivationGateTest {
+
+    private static final long KIB = 1024;
+
+    private static Thread acquireInBackground(DerivationGate gate, long memoryKb, String name, List<String> order) {
+        Thread thread = new Thread(() -> {
+            try {
+                long reserved;
+                // Record under the gate's lock so the list order is the admission order
+                synchronized (gate) {
+                    reserved = gate.acquire(memoryKb);
+                    order.add(name);
+                }
+                gate.release(reserved);
+            } catch (InterruptedException e) {
+                order.add(name + " interrupted");
+            }
+        }, name);
+        thread.start();
+        return thread;
+    }
+
+    private static void awaitQueueDepth(DerivationGate gate, int depth) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (gate.getStats().queueDepth != depth) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Queue depth stayed at " + gate.getStats().queueDepth + ", expected " + depth);
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void admitsImmediatelyWithinTheBudget() throws InterruptedException {
+        DerivationGate gate = new DerivationGate(100 * KIB);
+
+        assertEquals(60, gate.acquire(60));
+        assertEquals(40, gate.acquire(40));
+
+        DerivationGate.Stats stats = gate.getStats();
+        assertEquals(100, stats.inUseKb);
+        assertEquals(2, stats.admitted);
+        assertEquals(0, stats.waited);
+    }
+
+    @Test
+    public void smallRequestDoesNotOvertakeALargerOneAhead() throws InterruptedException {
+        DerivationGate gate = new DerivationGate(100 * KIB);
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        long held = gate.acquire(80);
+
+        Thread large = acquireInBackground(gate, 60, "large", order);
+        awaitQueueDepth(gate, 1);
+        // Would fit next to the 80 KiB held, but must queue behind the large request
+        Thread small = acquireInBackground(gate, 10, "small", order);
+        awaitQueueDepth(gate, 2);
+        assertEquals(Collections.emptyList(), order);
+
+        gate.release(held);
+        large.join(5_000);
+        small.join(5_000);
+
+        assertEquals(Arrays.asList("large", "small"), order);
+        DerivationGate.Stats stats = gate.getStats();
+        assertEquals(0, stats.inUseKb);
+        assertEquals(2, stats.waited);
+        assertEquals(2, stats.peakQueueDepth);
+    }
+
+    @Test
+    public void interruptedWaiterLeavesTheQueue() throws InterruptedException {
+        DerivationGate gate = new DerivationGate(100 * KIB);
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        long held = gate.acquire(80);
+
+        Thread first = acquireInBackground(gate, 60, "first", order);
+        awaitQueueDepth(gate, 1);
+        Thread second = acquireInBackground(gate, 10, "second", order);
+        awaitQueueDepth(gate, 2);
+
+        first.interrupt();
+        first.join(5_000);
+        // With the head gone the second request fits next to the 80 KiB still held
+        second.join(5_000);
+
+        assertEquals(2, order.size());
+        assertTrue(order.contains("first interrupted"));
+        assertTrue(order.contains("second"));
+        assertEquals(0, gate.getStats().queueDepth);
+        gate.release(held);
+        assertEquals(0, gate.getStats().inUseKb);
+    }
+
+    @Test
+    public void requestAboveTheBudgetIsClampedAndRunsAlone() throws InterruptedException {
+        DerivationGate gate = new DerivationGate(100 * KIB);
+
+        long reserved = gate.acquire(500);
+
+        assertEquals(100, reserved);
+        assertEquals(100, gate.getStats().inUseKb);
+        gate.release(reserved);
+        assertEquals(0, gate.getStats().inUseKb);
+    }
+
+    @Test
+    public void requestTheHeapCannotHoldIsRefused() throws InterruptedException {
+        DerivationGate gate = new DerivationGate(1024 * KIB);
+        gate.setHeapLimitBytes(4 * 1024 * KIB);
+
+        assertEquals(1024, gate.acquire(3 * 1024));
+        try {
+            gate.acquire(3 * 1024 + 1);
+            fail("Admitted more than three quarters of the heap");
+        } catch (IllegalArgumentException expected) {
+            // Refused before anything is reserved or queued
+        }
+        DerivationGate.Stats stats = gate.getStats();
+        assertEquals(1024, stats.inUseKb);
+        assertEquals(0, stats.queueDepth);
+        assertEquals(1, stats.admitted);
+    }
+}
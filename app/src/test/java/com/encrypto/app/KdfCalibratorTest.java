@@ -0,0 +1,37 @@
+package com.encrypto.app;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class KdfCalibratorTest {
+
+    private static final long HELD_MILLIS = 500;
+
+    @Test
+    public void timeQueuedBehindOtherDerivationsIsNotCounted() throws InterruptedException {
+        KdfParams params = new KdfParams(1, KdfParams.MIN_MEMORY_LOG2, 1);
+        KdfCalibrator.measure(params); // Warm-up, so the timed run below is short next to HELD_MILLIS
+        DerivationGate gate = DerivationGate.getInstance();
+        long held = gate.acquire(gate.getStats().budgetKb);
+
+        AtomicLong measured = new AtomicLong();
+        long start = System.nanoTime();
+        Thread calibration = new Thread(() -> measured.set(KdfCalibrator.measure(params)), "calibration");
+        try {
+            calibration.start();
+            Thread.sleep(HELD_MILLIS);
+        } finally {
+            gate.release(held);
+        }
+        calibration.join(10_000);
+        long wall = System.nanoTime() - start;
+
+        assertTrue("nothing measured", measured.get() > 0);
+        // The run had to wait for the budget, but only the derivation is timed
+        assertTrue("measured " + measured.get() / 1_000_000 + " ms of " + wall / 1_000_000 + " ms",
+                measured.get() <= wall - HELD_MILLIS * 1_000_000L);
+    }
+}
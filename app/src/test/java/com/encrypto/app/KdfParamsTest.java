@@ -0,0 +1,100 @@
+package com.encrypto.app;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class KdfParamsTest {
+
+    private static void assertRejected(byte[] encoded) {
+        try {
+            KdfParams.decode(encoded);
+            fail("Accepted out-of-range header bytes");
+        } catch (IllegalArgumentException expected) {
+            // The header is attacker controlled
+        }
+    }
+
+    @Test
+    public void encodesAsThreeBytesAndDecodesBack() {
+        KdfParams params = new KdfParams(3, 15, 4);
+
+        byte[] encoded = params.encode();
+
+        assertArrayEquals(new byte[]{3, 15, 4}, encoded);
+        assertEquals(params, KdfParams.decode(encoded));
+        assertEquals(32 * 1024, params.memoryKb());
+    }
+
+    @Test
+    public void roundTripsEveryBoundary() {
+        int[] iterations = {KdfParams.MIN_ITERATIONS, KdfParams.MAX_ITERATIONS};
+        int[] memory = {KdfParams.MIN_MEMORY_LOG2, KdfParams.MAX_MEMORY_LOG2};
+        int[] parallelism = {KdfParams.MIN_PARALLELISM, KdfParams.MAX_PARALLELISM};
+        for (int t : iterations) {
+            for (int m : memory) {
+                for (int p : parallelism) {
+                    KdfParams params = new KdfParams(t, m, p);
+                    assertEquals(params, KdfParams.decode(params.encode()));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void rejectsValuesJustOutsideTheBounds() {
+        assertRejected(new byte[]{KdfParams.MIN_ITERATIONS - 1, 16, 1});
+        assertRejected(new byte[]{KdfParams.MAX_ITERATIONS + 1, 16, 1});
+        assertRejected(new byte[]{4, KdfParams.MIN_MEMORY_LOG2 - 1, 1});
+        assertRejected(new byte[]{4, KdfParams.MAX_MEMORY_LOG2 + 1, 1});
+        assertRejected(new byte[]{4, 16, KdfParams.MIN_PARALLELISM - 1});
+        assertRejected(new byte[]{4, 16, KdfParams.MAX_PARALLELISM + 1});
+    }
+
+    @Test
+    public void treatsHeaderBytesAsUnsigned() {
+        // 0xFF must read as 255, not -1, and still be refused
+        assertRejected(new byte[]{(byte) 0xFF, 16, 1});
+        assertRejected(new byte[]{4, (byte) 0x90, 1});
+    }
+
+    @Test
+    public void rejectsWrongLengths() {
+        assertRejected(new byte[0]);
+        assertRejected(new byte[]{4, 16});
+        assertRejected(new byte[]{4, 16, 2, 0});
+        try {
+            KdfParams.readFrom(new byte[]{0, 0, 4, 16}, 2);
+            fail("Read past the end of the header");
+        } catch (IllegalArgumentException expected) {
+            // Truncated payload
+        }
+    }
+
+    @Test
+    public void readsAtAnOffset() {
+        assertEquals(KdfParams.LEGACY, KdfParams.readFrom(new byte[]{0x05, 4, 16, 2}, 1));
+    }
+
+    @Test
+    public void portableCapsOnlyTheMemoryCost() {
+        KdfParams large = new KdfParams(2, KdfParams.MAX_MEMORY_LOG2, 4);
+        assertEquals(new KdfParams(2, KdfParams.PORTABLE_MAX_MEMORY_LOG2, 4), large.portable());
+
+        KdfParams small = new KdfParams(5, KdfParams.PORTABLE_MAX_MEMORY_LOG2, 1);
+        assertSame(small, small.portable());
+    }
+
+    @Test
+    public void storedSettingsNeverExceedThePortableCeiling() {
+        try {
+            CryptoUtils.setKdfParams(new KdfParams(1, KdfParams.MAX_MEMORY_LOG2, 1));
+            assertEquals(KdfParams.PORTABLE_MAX_MEMORY_LOG2, CryptoUtils.getKdfParams().memoryLog2);
+        } finally {
+            CryptoUtils.setKdfParams(KdfParams.LEGACY);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.encrypto.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.encrypto.app.models.ChatMessage;
+import com.google.firebase.Timestamp;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class LegacyMessagesTest {
+
+    private static final int WINDOW = 50;
+
+    private static ChatMessage legacy(String id, long timestamp) {
+        ChatMessage msg = new ChatMessage("alice", "c2VhbGVk", timestamp);
+        msg.id = id;
+        return msg;
+    }
+
+    private static ChatMessage current(String id, long timestamp) {
+        ChatMessage msg = legacy(id, timestamp);
+        msg.updatedAt = new Timestamp(timestamp / 1000, 0);
+        return msg;
+    }
+
+    @Test
+    public void legacyMessageFromTheTimestampWindowIsDelivered() {
+        MessageList list = new MessageList(WINDOW);
+        ChatMessage old = legacy("a", 1_000);
+        ChatMessage synced = current("b", 2_000);
+
+        List<ChatMessage> merged = LegacyMessages.merge(list, Arrays.asList(old, synced));
+
+        assertEquals(Collections.singletonList(old), merged);
+        assertEquals(1, list.size());
+        assertSame(old, list.findById("a"));
+        // Messages with a server time are left to the updatedAt-ordered window
+        assertNull(list.findById("b"));
+    }
+
+    @Test
+    public void legacyMessageTakesItsPlaceAmongCurrentOnes() {
+        MessageList list = new MessageList(WINDOW);
+        list.upsert(current("b", 1_000));
+        list.upsert(current("d", 3_000));
+
+        LegacyMessages.merge(list, Collections.singletonList(legacy("c", 2_000)));
+
+        assertEquals("b", list.get(0).id);
+        assertEquals("c", list.get(1).id);
+        assertEquals("d", list.get(2).id);
+    }
+
+    @Test
+    public void redeliveryReplacesTheCopyInsteadOfAddingOne() {
+        MessageList list = new MessageList(WINDOW);
+        LegacyMessages.merge(list, Collections.singletonList(legacy("a", 1_000)));
+        ChatMessage again = legacy("a", 1_000);
+
+        LegacyMessages.merge(list, Collections.singletonList(again));
+
+        assertEquals(1, list.size());
+        assertSame(again, list.get(0));
+    }
+
+    @Test
+    public void backfillStartsBeforeTheNewestStoredMessage() {
+        long newest = 10 * LegacyMessages.SKEW_MILLIS;
+
+        assertEquals(newest - LegacyMessages.SKEW_MILLIS, LegacyMessages.backfillStart(legacy("a", newest)));
+        assertEquals(0, LegacyMessages.backfillStart(legacy("a", 5)));
+    }
+}
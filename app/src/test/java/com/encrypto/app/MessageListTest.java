@@ -0,0 +1,152 @@
+package com.encrypto.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.encrypto.app.models.ChatMessage;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class MessageListTest {
+
+    private MessageList list;
+    private final List<String> events = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        list = new MessageList(2);
+        list.setObserver(new MessageList.Observer() {
+            @Override
+            public void onInserted(int position, int count) {
+                events.add("insert " + position + " " + count);
+            }
+
+            @Override
+            public void onChanged(int position) {
+                events.add("change " + position);
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                events.add("move " + fromPosition + " " + toPosition);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                events.add("remove " + position + " " + count);
+            }
+        });
+    }
+
+    private static ChatMessage message(String id, long timestamp) {
+        ChatMessage msg = new ChatMessage("alice", (String) null, timestamp);
+        msg.id = id;
+        return msg;
+    }
+
+    private void assertOrder(String... ids) {
+        assertEquals(ids.length, list.size());
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(ids[i], list.get(i).id);
+        }
+    }
+
+    @Test
+    public void upsertKeepsTimestampThenIdOrder() {
+        assertTrue(list.upsert(message("b", 20)));
+        assertTrue(list.upsert(message("a", 30)));
+        assertTrue(list.upsert(message("c", 20)));
+
+        assertOrder("b", "c", "a");
+        assertEquals(Arrays.asList("insert 0 1", "insert 1 1", "insert 1 1"), events);
+    }
+
+    @Test
+    public void upsertOfKnownIdReplacesInPlace() {
+        list.upsert(message("a", 10));
+        list.upsert(message("b", 20));
+        events.clear();
+
+        ChatMessage rewritten = message("a", 10);
+        assertFalse(list.upsert(rewritten));
+
+        assertOrder("a", "b");
+        assertSame(rewritten, list.get(0));
+        assertEquals(Arrays.asList("change 0"), events);
+    }
+
+    @Test
+    public void upsertWithNewTimestampMovesTheRow() {
+        list.upsert(message("a", 10));
+        list.upsert(message("b", 20));
+        events.clear();
+
+        list.upsert(message("a", 30));
+
+        assertOrder("b", "a");
+        assertEquals(Arrays.asList("move 0 1", "change 1"), events);
+    }
+
+    @Test
+    public void serverCopyReplacesPendingEcho() {
+        list.upsert(message("a", 10));
+        ChatMessage echo = message("mine", 50);
+        list.addPending(echo);
+        assertEquals(1, list.indexOf(echo));
+        events.clear();
+
+        list.upsert(message("mine", 40));
+
+        assertOrder("a", "mine");
+        assertEquals(-1, list.indexOf(echo));
+        assertEquals(Arrays.asList("remove 1 1", "insert 1 1"), events);
+    }
+
+    @Test
+    public void prependOlderInsertsOneRangeAndReportsItsSize() {
+        list.upsert(message("c", 30));
+        events.clear();
+
+        int inserted = list.prependOlder(Arrays.asList(message("a", 10), message("b", 20), message("c", 30)));
+
+        assertEquals(2, inserted);
+        assertOrder("a", "b", "c");
+        assertEquals(Arrays.asList("insert 0 2", "change 2"), events);
+    }
+
+    @Test
+    public void trimOldestNeverTouchesTheLiveWindow() {
+        for (int i = 0; i < 5; i++) {
+            list.upsert(message("m" + i, i));
+        }
+        assertEquals(3, list.historySize());
+        events.clear();
+
+        list.trimOldest(10);
+
+        assertOrder("m3", "m4");
+        assertEquals(Arrays.asList("remove 0 3"), events);
+        assertNull(list.findById("m0"));
+        assertEquals(0, list.historySize());
+    }
+
+    @Test
+    public void replaceAllDropsEverythingLoadedBefore() {
+        list.upsert(message("old", 1));
+        events.clear();
+
+        list.replaceAll(Arrays.asList(message("x", 100), message("y", 200)));
+
+        assertOrder("x", "y");
+        assertNull(list.findById("old"));
+        assertEquals(Arrays.asList("remove 0 1", "insert 0 2"), events);
+    }
+}
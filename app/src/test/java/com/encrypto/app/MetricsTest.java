@@ -0,0 +1,110 @@
+package com.encrypto.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class MetricsTest {
+
+    private static final int LAST = Metrics.Histogram.BUCKETS - 1;
+
+    @After
+    public void restoreDefaults() {
+        Metrics.setEnabled(false);
+        Metrics.reset();
+    }
+
+    private static void assertInBucket(long micros) {
+        int index = Metrics.Histogram.index(micros);
+        assertTrue("lower bound above " + micros, Metrics.Histogram.lowerBound(index) <= micros);
+        if (index < LAST) {
+            assertTrue("next bucket starts at or below " + micros, micros < Metrics.Histogram.lowerBound(index + 1));
+        }
+    }
+
+    @Test
+    public void lowerBoundMapsBackToItsOwnBucket() {
+        for (int i = 0; i < Metrics.Histogram.BUCKETS; i++) {
+            assertEquals(i, Metrics.Histogram.index(Metrics.Histogram.lowerBound(i)));
+            if (i > 0) {
+                assertTrue(Metrics.Histogram.lowerBound(i) > Metrics.Histogram.lowerBound(i - 1));
+            }
+        }
+    }
+
+    @Test
+    public void everyValueLandsBetweenItsBucketBounds() {
+        for (long micros = 0; micros < 100_000; micros++) {
+            assertInBucket(micros);
+        }
+        for (int exponent = 2; exponent < 37; exponent++) {
+            long power = 1L << exponent;
+            assertInBucket(power - 1);
+            assertInBucket(power);
+            assertInBucket(power + 1);
+        }
+    }
+
+    @Test
+    public void bucketsAreAQuarterOfAPowerOfTwoWide() {
+        assertEquals(3, Metrics.Histogram.index(3));
+        assertEquals(4, Metrics.Histogram.index(4));
+        assertEquals(Metrics.Histogram.index(1024), Metrics.Histogram.index(1279));
+        assertEquals(Metrics.Histogram.index(1024) + 1, Metrics.Histogram.index(1280));
+        assertEquals(1280, Metrics.Histogram.lowerBound(Metrics.Histogram.index(1280)));
+    }
+
+    @Test
+    public void valuesBeyondTheRangeAreClampedIntoTheLastBucket() {
+        assertEquals(LAST, Metrics.Histogram.index(1L << 37));
+        assertEquals(LAST, Metrics.Histogram.index(Long.MAX_VALUE));
+        assertEquals(LAST, Metrics.Histogram.index((1L << 37) - 1));
+    }
+
+    @Test
+    public void percentilesAreExactToOneBucket() {
+        Metrics.Histogram histogram = new Metrics.Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1_000_000L); // 1 ms to 100 ms
+        }
+        Metrics.Snapshot snapshot = histogram.snapshot();
+
+        assertEquals(100, snapshot.count);
+        assertEquals(50_500, snapshot.meanMicros());
+        assertEquals(100_000, snapshot.maxMicros);
+        long p50 = snapshot.percentileMicros(0.5);
+        assertTrue(p50 >= 50_000 && p50 <= 50_000 * 5 / 4);
+        long p99 = snapshot.percentileMicros(0.99);
+        assertTrue(p99 >= 99_000 && p99 <= 100_000);
+        assertEquals(100_000, snapshot.percentileMicros(1.0));
+    }
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        Metrics.Snapshot snapshot = new Metrics.Histogram().snapshot();
+
+        assertEquals(0, snapshot.count);
+        assertEquals(0, snapshot.meanMicros());
+        assertEquals(0, snapshot.percentileMicros(0.99));
+    }
+
+    @Test
+    public void nothingIsRecordedWhileDisabled() {
+        long token = Metrics.start();
+        assertEquals(0, token);
+        Metrics.record(Metrics.Stage.CIPHER, token);
+        Metrics.recordNanos(Metrics.Stage.CIPHER, 5_000);
+        Metrics.increment(Metrics.Counter.MESSAGES_SENT);
+
+        assertEquals(0, Metrics.snapshot(Metrics.Stage.CIPHER).count);
+        assertEquals(0, Metrics.count(Metrics.Counter.MESSAGES_SENT));
+
+        Metrics.setEnabled(true);
+        Metrics.recordNanos(Metrics.Stage.CIPHER, 5_000);
+        Metrics.increment(Metrics.Counter.MESSAGES_SENT);
+        assertEquals(1, Metrics.snapshot(Metrics.Stage.CIPHER).count);
+        assertEquals(1, Metrics.count(Metrics.Counter.MESSAGES_SENT));
+    }
+}
@@ -0,0 +1,173 @@
+package com.encrypto.app;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+public class ParallelStreamCryptoTest {
+
+    private static final int SEGMENT = 1024;
+
+    // One worker runs the sequential loop, so both code paths are covered
+    private static ParallelStreamCrypto single;
+    private static ParallelStreamCrypto pooled;
+
+    private final SecureRandom random = new SecureRandom();
+    private final SecretKey key = newKey();
+
+    @BeforeClass
+    public static void startPools() {
+        single = new ParallelStreamCrypto(1);
+        pooled = new ParallelStreamCrypto(3);
+    }
+
+    @AfterClass
+    public static void stopPools() {
+        single.shutdown();
+        pooled.shutdown();
+    }
+
+    private SecretKey newKey() {
+        byte[] bytes = new byte[CryptoUtils.KEY_LENGTH];
+        new SecureRandom().nextBytes(bytes);
+        return new SecretKeySpec(bytes, "AES");
+    }
+
+    private byte[] plaintext(int length) {
+        byte[] data = new byte[length];
+        random.nextBytes(data);
+        return data;
+    }
+
+    private byte[] sealSequential(byte[] data, StreamCrypto.Header header) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamCrypto.encrypt(new ByteArrayInputStream(data), out, header, key);
+        return out.toByteArray();
+    }
+
+    private byte[] sealParallel(ParallelStreamCrypto engine, byte[] data, StreamCrypto.Header header) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        engine.encrypt(new ByteArrayInputStream(data), out, header, key);
+        return out.toByteArray();
+    }
+
+    private byte[] openSequential(byte[] sealed) throws Exception {
+        ByteArrayInputStream in = new ByteArrayInputStream(sealed);
+        StreamCrypto.Header header = StreamCrypto.Header.read(in);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamCrypto.decrypt(in, out, header, key);
+        return out.toByteArray();
+    }
+
+    private byte[] openParallel(ParallelStreamCrypto engine, byte[] sealed) throws Exception {
+        ByteArrayInputStream in = new ByteArrayInputStream(sealed);
+        StreamCrypto.Header header = StreamCrypto.Header.read(in);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        engine.decrypt(in, out, header, key);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void producesTheSameBytesAsTheSequentialPath() throws Exception {
+        // Many more segments than the in-flight window, and a partial last one
+        for (int length : new int[]{0, SEGMENT, 37 * SEGMENT + 11}) {
+            byte[] data = plaintext(length);
+            StreamCrypto.Header header = StreamCrypto.Header.create(SEGMENT);
+            byte[] expected = sealSequential(data, header);
+            assertArrayEquals(expected, sealParallel(pooled, data, header));
+            assertArrayEquals(expected, sealParallel(single, data, header));
+        }
+    }
+
+    @Test
+    public void eachSideOpensTheOthersStreams() throws Exception {
+        byte[] data = plaintext(20 * SEGMENT + 1);
+        byte[] sequential = sealSequential(data, StreamCrypto.Header.create(SEGMENT));
+        byte[] parallel = sealParallel(pooled, data, StreamCrypto.Header.create(SEGMENT));
+
+        assertArrayEquals(data, openParallel(pooled, sequential));
+        assertArrayEquals(data, openParallel(single, sequential));
+        assertArrayEquals(data, openSequential(parallel));
+    }
+
+    @Test
+    public void rejectsTruncatedStreams() throws Exception {
+        byte[] sealed = sealSequential(plaintext(10 * SEGMENT), StreamCrypto.Header.create(SEGMENT));
+        int withoutLast = sealed.length - (SEGMENT + StreamCrypto.TAG_LENGTH);
+        try {
+            openParallel(pooled, Arrays.copyOf(sealed, withoutLast));
+            fail("Truncated stream was accepted");
+        } catch (IOException | GeneralSecurityException expected) {
+            // The segment before the cut was not sealed as the final one
+        }
+    }
+
+    @Test
+    public void rejectsReorderedSegments() throws Exception {
+        byte[] sealed = sealSequential(plaintext(10 * SEGMENT), StreamCrypto.Header.create(SEGMENT));
+        int chunk = SEGMENT + StreamCrypto.TAG_LENGTH;
+        int first = StreamCrypto.HEADER_LENGTH + 3 * chunk;
+        byte[] swapped = sealed.clone();
+        System.arraycopy(sealed, first, swapped, first + chunk, chunk);
+        System.arraycopy(sealed, first + chunk, swapped, first, chunk);
+        try {
+            openParallel(pooled, swapped);
+            fail("Reordered stream was accepted");
+        } catch (IOException | GeneralSecurityException expected) {
+            // Each segment's index is part of its nonce
+        }
+    }
+
+    @Test
+    public void wipesEverySegmentWhenWritingFails() throws Exception {
+        byte[] sealed = sealSequential(plaintext(30 * SEGMENT), StreamCrypto.Header.create(SEGMENT));
+        List<byte[]> written = new ArrayList<>();
+        // Keeps the engine's own buffers, then fails part-way with later segments still in flight
+        OutputStream failing = new OutputStream() {
+            @Override
+            public void write(int b) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                written.add(b);
+                if (written.size() == 3) {
+                    throw new IOException("Disk full");
+                }
+            }
+        };
+        ByteArrayInputStream in = new ByteArrayInputStream(sealed);
+        StreamCrypto.Header header = StreamCrypto.Header.read(in);
+        try {
+            pooled.decrypt(in, failing, header, key);
+            fail("Write error was swallowed");
+        } catch (IOException expected) {
+            // Reported to the caller
+        }
+
+        assertEquals(3, written.size());
+        byte[] zeros = new byte[written.get(0).length];
+        for (byte[] buffer : written) {
+            // Plaintext, including the segment that was being written when the error hit
+            assertArrayEquals(zeros, buffer);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.encrypto.app;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+public class StreamCryptoTest {
+
+    private static final int SEGMENT = 16;
+    private static final int CHUNK = SEGMENT + StreamCrypto.TAG_LENGTH;
+
+    private final SecureRandom random = new SecureRandom();
+    private final SecretKey key = newKey();
+
+    private SecretKey newKey() {
+        byte[] bytes = new byte[CryptoUtils.KEY_LENGTH];
+        new SecureRandom().nextBytes(bytes);
+        return new SecretKeySpec(bytes, "AES");
+    }
+
+    private byte[] plaintext(int length) {
+        byte[] data = new byte[length];
+        random.nextBytes(data);
+        return data;
+    }
+
+    // Argon2 is skipped: the key is handed in directly, as the benchmarks do
+    private byte[] seal(byte[] plaintext) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamCrypto.encrypt(new ByteArrayInputStream(plaintext), out, StreamCrypto.Header.create(SEGMENT), key);
+        return out.toByteArray();
+    }
+
+    private byte[] open(byte[] sealed) throws Exception {
+        ByteArrayInputStream in = new ByteArrayInputStream(sealed);
+        StreamCrypto.Header header = StreamCrypto.Header.read(in);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamCrypto.decrypt(in, out, header, key);
+        return out.toByteArray();
+    }
+
+    private void assertRejected(byte[] sealed) throws Exception {
+        try {
+            open(sealed);
+            fail("Tampered stream was accepted");
+        } catch (IOException | GeneralSecurityException expected) {
+            // Either a framing error or a failed tag
+        }
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] chunk(byte[] sealed, int index) {
+        int start = StreamCrypto.HEADER_LENGTH + index * CHUNK;
+        return Arrays.copyOfRange(sealed, start, Math.min(sealed.length, start + CHUNK));
+    }
+
+    @Test
+    public void roundTripsAcrossSegmentBoundaries() throws Exception {
+        for (int length : new int[]{0, 1, SEGMENT - 1, SEGMENT, SEGMENT + 1, 2 * SEGMENT, 5 * SEGMENT + 3}) {
+            byte[] data = plaintext(length);
+            byte[] sealed = seal(data);
+            int segments = Math.max(1, (length + SEGMENT - 1) / SEGMENT);
+            assertEquals(StreamCrypto.HEADER_LENGTH + length + segments * StreamCrypto.TAG_LENGTH, sealed.length);
+            assertArrayEquals(data, open(sealed));
+        }
+    }
+
+    @Test
+    public void rejectsDroppedFinalSegment() throws Exception {
+        byte[] sealed = seal(plaintext(2 * SEGMENT + 5));
+        assertRejected(Arrays.copyOf(sealed, StreamCrypto.HEADER_LENGTH + 2 * CHUNK));
+    }
+
+    @Test
+    public void rejectsStreamCutInsideASegment() throws Exception {
+        byte[] sealed = seal(plaintext(2 * SEGMENT + 5));
+        assertRejected(Arrays.copyOf(sealed, sealed.length - 3));
+        assertRejected(Arrays.copyOf(sealed, StreamCrypto.HEADER_LENGTH + CHUNK + 4));
+        assertRejected(Arrays.copyOf(sealed, StreamCrypto.HEADER_LENGTH));
+    }
+
+    @Test
+    public void rejectsSwappedSegments() throws Exception {
+        byte[] sealed = seal(plaintext(3 * SEGMENT));
+        byte[] header = Arrays.copyOf(sealed, StreamCrypto.HEADER_LENGTH);
+        assertRejected(concat(header, chunk(sealed, 1), chunk(sealed, 0), chunk(sealed, 2)));
+    }
+
+    @Test
+    public void rejectsSegmentAppendedAfterTheFinalOne() throws Exception {
+        byte[] sealed = seal(plaintext(2 * SEGMENT));
+        assertRejected(concat(sealed, chunk(sealed, 0)));
+    }
+
+    @Test
+    public void rejectsSegmentsFromAnotherStream() throws Exception {
+        byte[] first = seal(plaintext(2 * SEGMENT));
+        byte[] second = seal(plaintext(2 * SEGMENT));
+        // Same key, but each stream has its own header and nonce prefix
+        assertRejected(concat(Arrays.copyOf(first, StreamCrypto.HEADER_LENGTH), chunk(second, 0), chunk(second, 1)));
+    }
+
+    @Test
+    public void rejectsModifiedHeader() throws Exception {
+        byte[] sealed = seal(plaintext(SEGMENT));
+        sealed[StreamCrypto.HEADER_LENGTH - 5] ^= 1; // Last byte of the nonce prefix
+        assertRejected(sealed);
+    }
+
+    @Test
+    public void recognizesItsOwnMagic() throws Exception {
+        assertTrue(StreamCrypto.isEncryptedStream(new ByteArrayInputStream(seal(plaintext(1)))));
+    }
+}
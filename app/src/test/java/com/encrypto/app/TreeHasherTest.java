@@ -0,0 +1,97 @@
+package com.encrypto.app;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.bouncycastle.crypto.Digest;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Map;
+
+public class TreeHasherTest {
+
+    private static final int LEAF = 1024;
+    private static final StreamHasher.Algorithm SHA256 = StreamHasher.Algorithm.SHA_256;
+
+    private static TreeHasher single;
+    private static TreeHasher pooled;
+
+    @BeforeClass
+    public static void startPools() {
+        single = new TreeHasher(1);
+        pooled = new TreeHasher(3);
+    }
+
+    @AfterClass
+    public static void stopPools() {
+        single.shutdown();
+        pooled.shutdown();
+    }
+
+    private static byte[] digest(byte prefix, byte[]... parts) {
+        Digest digest = SHA256.newDigest();
+        digest.update(prefix);
+        for (byte[] part : parts) {
+            digest.update(part, 0, part.length);
+        }
+        byte[] out = new byte[digest.getDigestSize()];
+        digest.doFinal(out, 0);
+        return out;
+    }
+
+    private static byte[] treeHash(TreeHasher hasher, byte[] data) throws IOException {
+        File file = File.createTempFile("tree", ".bin");
+        try {
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                out.write(data);
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+                Map<StreamHasher.Algorithm, byte[]> result = hasher.hash(channel, LEAF, SHA256);
+                return result.get(SHA256);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static byte[] random(int length) {
+        byte[] data = new byte[length];
+        new SecureRandom().nextBytes(data);
+        return data;
+    }
+
+    @Test
+    public void rootFollowsTheMerkleLayout() throws IOException {
+        // Three leaves: the third is carried up unpaired
+        byte[] data = random(2 * LEAF + 100);
+        byte[] a = digest((byte) 0, Arrays.copyOfRange(data, 0, LEAF));
+        byte[] b = digest((byte) 0, Arrays.copyOfRange(data, LEAF, 2 * LEAF));
+        byte[] c = digest((byte) 0, Arrays.copyOfRange(data, 2 * LEAF, data.length));
+        byte[] expected = digest((byte) 1, digest((byte) 1, a, b), c);
+
+        assertArrayEquals(expected, treeHash(pooled, data));
+    }
+
+    @Test
+    public void rootDoesNotDependOnTheThreadCount() throws IOException {
+        byte[] data = random(7 * LEAF + 1);
+
+        assertArrayEquals(treeHash(single, data), treeHash(pooled, data));
+    }
+
+    @Test
+    public void rootIsNotThePlainDigest() throws IOException {
+        byte[] data = random(LEAF / 2);
+
+        assertFalse(Arrays.equals(StreamHasher.hash(data, SHA256).get(SHA256), treeHash(pooled, data)));
+    }
+}
@@ -0,0 +1,90 @@
+package com.encrypto.app;
+
+import org.bouncycastle.crypto.generators.Argon2BytesGenerator;
+import org.bouncycastle.crypto.params.Argon2Parameters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Argon2id cost over a grid of memory, iteration and parallelism settings.
+ * The gc profiler shows the per-derivation allocation next to each timing: {@code grid} is the
+ * Bouncy Castle generator, {@code pooled} and {@code unpooled} the in-app engine with and without
+ * arena reuse, and {@code sequentialLanes} the engine with its lane workers disabled.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class Argon2Benchmark {
+
+    private static final char[] PASSWORD = "benchmark-password".toCharArray();
+
+    @Param({"16384", "32768", "65536"})
+    public int memoryKb;
+
+    @Param({"1", "2", "3", "4"})
+    public int iterations;
+
+    @Param({"1", "2", "4"})
+    public int parallelism;
+
+    private Argon2Parameters parameters;
+    private KdfParams kdfParams;
+    private byte[] salt;
+
+    private final Argon2Engine pooledEngine = new Argon2Engine(1);
+    private final Argon2Engine unpooledEngine = new Argon2Engine(0);
+    private final Argon2Engine sequentialEngine = new Argon2Engine(1, 0);
+    private final byte[] passwordBytes = new String(PASSWORD).getBytes(StandardCharsets.UTF_8);
+
+    @Setup
+    public void setUp() {
+        salt = CryptoUtils.newRoomSalt();
+        parameters = new Argon2Parameters.Builder(Argon2Parameters.ARGON2_id)
+                .withVersion(Argon2Parameters.ARGON2_VERSION_13)
+                .withIterations(iterations)
+                .withMemoryAsKB(memoryKb)
+                .withParallelism(parallelism)
+                .withSalt(salt)
+                .build();
+        kdfParams = new KdfParams(iterations, Integer.numberOfTrailingZeros(memoryKb), parallelism);
+    }
+
+    @Benchmark
+    public byte[] grid() {
+        Argon2BytesGenerator generator = new Argon2BytesGenerator();
+        generator.init(parameters);
+        byte[] out = new byte[CryptoUtils.KEY_LENGTH];
+        generator.generateBytes(PASSWORD, out, 0, out.length);
+        return out;
+    }
+
+    @Benchmark
+    public byte[] pooled() {
+        return pooledEngine.derive(passwordBytes, salt, kdfParams, CryptoUtils.KEY_LENGTH);
+    }
+
+    @Benchmark
+    public byte[] unpooled() {
+        return unpooledEngine.derive(passwordBytes, salt, kdfParams, CryptoUtils.KEY_LENGTH);
+    }
+
+    @Benchmark
+    public byte[] sequentialLanes() {
+        return sequentialEngine.derive(passwordBytes, salt, kdfParams, CryptoUtils.KEY_LENGTH);
+    }
+}
@@ -0,0 +1,85 @@
+package com.encrypto.app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-message AEAD cost under a room session key, from 16 B to 16 MiB.
+ * Argon2 runs once in setup, so this isolates HKDF + cipher (+ optional Deflate). The buffer
+ * variants reuse their direct buffers and never compress, so the gc profiler shows what is left
+ * of the per-message allocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class CipherBenchmark {
+
+    @Param({"16", "1024", "65536", "1048576", "16777216"})
+    public int size;
+
+    // "text" compresses well, "random" never does
+    @Param({"text", "random"})
+    public String content;
+
+    @Param({"false", "true"})
+    public boolean compression;
+
+    @Param({"AES_GCM", "CHACHA20_POLY1305"})
+    public CipherSuite suite;
+
+    private CryptoUtils.SessionKey sessionKey;
+    private byte[] plaintext;
+    private byte[] sealed;
+    private ByteBuffer plaintextBuffer;
+    private ByteBuffer sealedBuffer;
+    private ByteBuffer outputBuffer;
+
+    @Setup
+    public void setUp() throws Exception {
+        CryptoUtils.setCompressionEnabled(compression);
+        CryptoUtils.setCipherSuite(suite);
+        sessionKey = CryptoUtils.deriveSessionKey("benchmark-password", CryptoUtils.newRoomSalt());
+        plaintext = "text".equals(content) ? Payloads.text(size) : Payloads.random(size);
+        sealed = CryptoUtils.encryptBytes(plaintext, sessionKey);
+
+        plaintextBuffer = ByteBuffer.allocateDirect(size);
+        plaintextBuffer.put(plaintext).flip();
+        sealedBuffer = ByteBuffer.allocateDirect(CryptoUtils.sessionPayloadLength(size));
+        outputBuffer = ByteBuffer.allocateDirect(CryptoUtils.sessionPayloadLength(size));
+        CryptoUtils.encrypt(plaintextBuffer.duplicate(), sealedBuffer, sessionKey);
+        sealedBuffer.flip();
+    }
+
+    @Benchmark
+    public byte[] encrypt() throws Exception {
+        return CryptoUtils.encryptBytes(plaintext, sessionKey);
+    }
+
+    @Benchmark
+    public byte[] decrypt() throws Exception {
+        return CryptoUtils.decryptBytes(sealed, sessionKey, null);
+    }
+
+    @Benchmark
+    public int encryptBuffer() throws Exception {
+        outputBuffer.clear();
+        return CryptoUtils.encrypt(plaintextBuffer.duplicate(), outputBuffer, sessionKey);
+    }
+
+    @Benchmark
+    public int decryptBuffer() throws Exception {
+        outputBuffer.clear();
+        return CryptoUtils.decrypt(sealedBuffer.duplicate(), outputBuffer, sessionKey);
+    }
+}
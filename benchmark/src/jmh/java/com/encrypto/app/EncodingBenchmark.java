@@ -0,0 +1,72 @@
+package com.encrypto.app;
+
+import android.util.Base64;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base64 (wrapped vs NO_WRAP), hex conversion in bytesToHex, and hash().
+ * Base64 goes through the JVM stand-in, so treat it as a relative, not absolute, Android number.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class EncodingBenchmark {
+
+    @Param({"16", "1024", "65536", "1048576"})
+    public int size;
+
+    private byte[] data;
+    private String wrapped;
+    private String noWrap;
+    private String text;
+
+    @Setup
+    public void setUp() {
+        data = Payloads.random(size);
+        wrapped = Base64.encodeToString(data, Base64.DEFAULT);
+        noWrap = Base64.encodeToString(data, Base64.NO_WRAP);
+        text = new String(Payloads.text(size), java.nio.charset.StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String base64EncodeWrapped() {
+        return Base64.encodeToString(data, Base64.DEFAULT);
+    }
+
+    @Benchmark
+    public String base64EncodeNoWrap() {
+        return Base64.encodeToString(data, Base64.NO_WRAP);
+    }
+
+    @Benchmark
+    public byte[] base64DecodeWrapped() {
+        return Base64.decode(wrapped, Base64.DEFAULT);
+    }
+
+    @Benchmark
+    public byte[] base64DecodeNoWrap() {
+        return Base64.decode(noWrap, Base64.DEFAULT);
+    }
+
+    @Benchmark
+    public String bytesToHex() {
+        return CryptoUtils.bytesToHex(data);
+    }
+
+    @Benchmark
+    public String hashSha256() throws Exception {
+        return CryptoUtils.hash(text, "SHA-256");
+    }
+}
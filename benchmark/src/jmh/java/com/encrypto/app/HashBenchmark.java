@@ -0,0 +1,95 @@
+package com.encrypto.app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * File hashing: one pass per algorithm against all four digests in a single pass, buffered reads
+ * against memory-mapping, and the tree hash per thread count. The file sits in the page cache after
+ * the first iteration, so the numbers are digest and copy cost rather than storage speed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class HashBenchmark {
+
+    @Param({"16777216", "134217728"})
+    public int size;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private File file;
+    private FileInputStream fileIn;
+    private FileChannel channel;
+    private TreeHasher treeHasher;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = File.createTempFile("hash-bench", ".bin");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(Payloads.random(size));
+        }
+        fileIn = new FileInputStream(file);
+        channel = fileIn.getChannel();
+        treeHasher = new TreeHasher(threads);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        treeHasher.shutdown();
+        fileIn.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public int separatePasses() throws IOException {
+        int total = 0;
+        for (StreamHasher.Algorithm algorithm : StreamHasher.Algorithm.values()) {
+            try (InputStream in = new FileInputStream(file)) {
+                total += StreamHasher.hash(in, algorithm).get(algorithm).length;
+            }
+        }
+        return total;
+    }
+
+    @Benchmark
+    public Map<StreamHasher.Algorithm, byte[]> singlePassStream() throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return StreamHasher.hash(in, StreamHasher.Algorithm.values());
+        }
+    }
+
+    @Benchmark
+    public Map<StreamHasher.Algorithm, byte[]> singlePassMapped() throws IOException {
+        return StreamHasher.hash(channel, StreamHasher.Algorithm.values());
+    }
+
+    @Benchmark
+    public Map<StreamHasher.Algorithm, byte[]> treeSha256() throws IOException {
+        return treeHasher.hash(channel, StreamHasher.Algorithm.SHA_256);
+    }
+
+    @Benchmark
+    public Map<StreamHasher.Algorithm, byte[]> treeAll() throws IOException {
+        return treeHasher.hash(channel, StreamHasher.Algorithm.values());
+    }
+}
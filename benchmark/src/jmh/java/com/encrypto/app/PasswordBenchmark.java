@@ -0,0 +1,55 @@
+package com.encrypto.app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The password-based String API as MainActivity uses it: shipped Argon2 settings end to end.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class PasswordBenchmark {
+
+    private static final String PASSWORD = "benchmark-password";
+
+    private byte[] salt;
+    private String message;
+    private String encrypted;
+
+    @Setup
+    public void setUp() throws Exception {
+        salt = CryptoUtils.newRoomSalt();
+        message = new String(Payloads.text(1024), StandardCharsets.UTF_8);
+        encrypted = CryptoUtils.encrypt(message, PASSWORD);
+    }
+
+    @Benchmark
+    public byte[] deriveKey() {
+        return CryptoUtils.deriveKey(PASSWORD, salt);
+    }
+
+    @Benchmark
+    public String encrypt() throws Exception {
+        return CryptoUtils.encrypt(message, PASSWORD);
+    }
+
+    @Benchmark
+    public String decrypt() throws Exception {
+        return CryptoUtils.decrypt(encrypted, PASSWORD);
+    }
+}
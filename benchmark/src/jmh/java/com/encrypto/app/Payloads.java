@@ -0,0 +1,30 @@
+package com.encrypto.app;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/** Deterministic benchmark inputs. */
+final class Payloads {
+
+    private static final String SAMPLE = "Hey, are we still meeting at six tomorrow? I'll bring the notes from "
+            + "Tuesday's call and the draft budget. Let me know if the room changed again.\n";
+
+    private Payloads() {
+    }
+
+    static byte[] random(int size) {
+        byte[] data = new byte[size];
+        new Random(42).nextBytes(data);
+        return data;
+    }
+
+    // Repeated chat-like prose, roughly how pasted documents compress
+    static byte[] text(int size) {
+        byte[] sample = SAMPLE.getBytes(StandardCharsets.UTF_8);
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = sample[i % sample.length];
+        }
+        return data;
+    }
+}
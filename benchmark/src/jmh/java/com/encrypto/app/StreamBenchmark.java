@@ -0,0 +1,95 @@
+package com.encrypto.app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Segmented file encryption: sequential StreamCrypto against ParallelStreamCrypto per thread count.
+ * The key is derived once in setup, so the numbers are pure segment throughput.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class StreamBenchmark {
+
+    @Param({"16777216", "67108864"})
+    public int size;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private StreamCrypto.Header header;
+    private SecretKey key;
+    private byte[] plaintext;
+    private byte[] sealed;
+    private ParallelStreamCrypto parallel;
+
+    @Setup
+    public void setUp() throws Exception {
+        header = StreamCrypto.Header.create(StreamCrypto.DEFAULT_SEGMENT_SIZE);
+        key = header.deriveKey("benchmark-password");
+        plaintext = Payloads.random(size);
+        parallel = new ParallelStreamCrypto(threads);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size + size / 1000 + 64);
+        StreamCrypto.encrypt(new ByteArrayInputStream(plaintext), out, header, key);
+        sealed = out.toByteArray();
+    }
+
+    @TearDown
+    public void tearDown() {
+        parallel.shutdown();
+    }
+
+    @Benchmark
+    public void encryptSequential() throws Exception {
+        StreamCrypto.encrypt(new ByteArrayInputStream(plaintext), NullOutputStream.INSTANCE, header, key);
+    }
+
+    @Benchmark
+    public void encryptParallel() throws Exception {
+        parallel.encrypt(new ByteArrayInputStream(plaintext), NullOutputStream.INSTANCE, header, key);
+    }
+
+    @Benchmark
+    public void decryptSequential() throws Exception {
+        ByteArrayInputStream in = new ByteArrayInputStream(sealed);
+        in.skip(StreamCrypto.HEADER_LENGTH);
+        StreamCrypto.decrypt(in, NullOutputStream.INSTANCE, header, key);
+    }
+
+    @Benchmark
+    public void decryptParallel() throws Exception {
+        ByteArrayInputStream in = new ByteArrayInputStream(sealed);
+        in.skip(StreamCrypto.HEADER_LENGTH);
+        parallel.decrypt(in, NullOutputStream.INSTANCE, header, key);
+    }
+
+    private static final class NullOutputStream extends OutputStream {
+        static final NullOutputStream INSTANCE = new NullOutputStream();
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package android.util;
+
+/**
+ * JVM stand-in for android.util.Base64, backed by java.util.Base64.
+ * Covers only the flags CryptoUtils uses. Numbers measured through it approximate, but are not
+ * identical to, the Android implementation.
+ */
+public class Base64 {
+
+    public static final int DEFAULT = 0;
+    public static final int NO_WRAP = 2;
+
+    private static final byte[] LINE_SEPARATOR = {'\n'};
+
+    public static String encodeToString(byte[] input, int flags) {
+        if ((flags & NO_WRAP) != 0) {
+            return java.util.Base64.getEncoder().encodeToString(input);
+        }
+        // Android's DEFAULT wraps at 76 characters and ends with a newline
+        return java.util.Base64.getMimeEncoder(76, LINE_SEPARATOR).encodeToString(input) + "\n";
+    }
+
+    public static byte[] decode(String str, int flags) {
+        // The MIME decoder skips line breaks like Android's decoder does
+        return java.util.Base64.getMimeDecoder().decode(str);
+    }
+}